@@ -1,25 +1,43 @@
 package com.example;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
 import java.util.Scanner;
+import java.util.stream.Stream;
 
 import com.example.ast.Program;
+import com.example.ast.Stmt;
+import com.example.cache.AstCache;
+import com.example.environment.Resolver;
 import com.example.environment.RuntimeError;
 import com.example.interpreter.Interpreter;
 import com.example.lexer.Lexer;
+import com.example.optimizer.Optimizer;
 import com.example.parser.Parser;
 import com.example.token.Token;
 
 public class App {
     private static boolean hasError = false;
     private static String fileName = "<stdin>";
+    private static boolean stream = false;
+    private static boolean useCache = true;
 
     public static String getfileName() {
         return fileName;
     }
 
+    public static void setFileName(String fileName) {
+        App.fileName = fileName;
+    }
+
     public static boolean hasError() {
         return hasError;
     }
@@ -28,32 +46,114 @@ public class App {
         hasError = true;
     }
 
-    private static void runFile(String fileName) {
+    /**
+     * An interactive interpreter lets a global be declared again, so a line
+     * can be corrected and entered once more. Imports are relative to the
+     * directory.
+     */
+    private static Interpreter newInterpreter(boolean interactive, Path directory) {
         Interpreter interpreter = new Interpreter();
-        String input;
+        interpreter.getGlobals().setRedeclare(interactive);
+        interpreter.setDirectory(directory);
+        return interpreter;
+    }
+
+    /**
+     * Maps the file read only, or returns null when it is too large to map
+     * in one piece.
+     */
+    private static ByteBuffer mapFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                return null;
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Reads one line of the file again to show where a runtime error is.
+     */
+    private static String sourceLine(Path path, int line) {
+        try (Stream<String> lines = Files.lines(path)) {
+            return lines.skip(line - 1).findFirst().orElse("");
+        } catch (IOException | UncheckedIOException e) {
+            return "";
+        }
+    }
+
+    private static void runFile(String fileName) {
+        Path path = Paths.get(fileName);
+        Interpreter interpreter = newInterpreter(false, path.toAbsolutePath().getParent());
+        ByteBuffer source;
         try {
-            input = Files.readString(Paths.get(fileName));
+            source = mapFile(path);
         } catch (IOException e) {
             System.out.println(e.getMessage());
             return;
         }
-        Lexer lexer = new Lexer(input);
-        Parser parser = new Parser(lexer);
-        Program program = parser.getProgram();
-        if (hasError()) {
-            System.exit(65);
-        }
-        try {
-            interpreter.interpret(program);
+        // the lexer reads the mapping directly, so the source is never held
+        // in memory as a whole; a file too large to map is read instead, and
+        // the reader stays open while statements are still being parsed
+        try (Reader reader = (source == null) ? Files.newBufferedReader(path) : null) {
+            Lexer lexer = (source != null) ? new Lexer(source.duplicate()) : new Lexer(reader);
+            if (stream) {
+                runStatements(new Parser(lexer), interpreter);
+            } else {
+                interpreter.interpret(program(lexer, source));
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
         } catch (RuntimeError e) {
             Token token = e.getToken();
-            String line = input.split("\n")[token.getLine() - 1];
+            String line = sourceLine(path, token.getLine());
             System.out.println(getErrorMessage(token.getLine(), token.getCol(), e.getMessage(), line));
         }
     }
 
+    /**
+     * Parses, optimizes and resolves the script, or loads all of that from
+     * the cache when the script has not changed since it was last run.
+     */
+    private static Program program(Lexer lexer, ByteBuffer source) {
+        AstCache cache = AstCache.standard();
+        String key = (useCache && source != null) ? AstCache.key(source) : null;
+        Program program = (key != null) ? cache.load(key) : null;
+        if (program != null) {
+            return program;
+        }
+        program = new Parser(lexer).getProgram();
+        if (hasError()) {
+            System.exit(65);
+        }
+        program = new Optimizer().optimize(program);
+        new Resolver().resolve(program.getStmts());
+        program.setResolved(true);
+        if (key != null) {
+            cache.store(key, program);
+        }
+        return program;
+    }
+
+    /**
+     * Runs each top-level statement as soon as it is parsed, so a script
+     * starts before the rest of it is read and a statement nothing refers
+     * to can be collected once it has run. Everything before the first
+     * syntax error runs.
+     */
+    private static void runStatements(Parser parser, Interpreter interpreter) {
+        for (Stmt stmt = parser.nextStatement(); stmt != null; stmt = parser.nextStatement()) {
+            if (hasError()) {
+                System.exit(65);
+            }
+            interpreter.interpret(new Optimizer().optimize(new Program(Collections.singletonList(stmt))));
+        }
+        if (hasError()) {
+            System.exit(65);
+        }
+    }
+
     private static void runPrompt() {
-        Interpreter interpreter = new Interpreter();
+        Interpreter interpreter = newInterpreter(true, Paths.get(""));
         try (Scanner scanner = new Scanner(System.in)) {
             while (true) {
                 System.out.print("> ");
@@ -64,7 +164,7 @@ public class App {
                     continue;
                 }
                 try {
-                    interpreter.interpret(parser.getProgram());
+                    interpreter.interpret(new Optimizer().optimize(parser.getProgram()));
                 } catch (RuntimeError e) {
                     Token token = e.getToken();
                     System.out.println(getErrorMessage(token.getLine(), token.getCol(), e.getMessage(), input));
@@ -78,12 +178,23 @@ public class App {
     }
 
     public static void main(String[] args) {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("--"); i++) {
+            if (args[i].equals("--stream")) {
+                stream = true;
+            } else if (args[i].equals("--no-cache")) {
+                useCache = false;
+            } else {
+                System.out.println("Usage: jlox [--stream] [--no-cache] [script]");
+                System.exit(64);
+            }
+        }
+        if (args.length - i > 1) {
+            System.out.println("Usage: jlox [--stream] [--no-cache] [script]");
             System.exit(64);
-        } else if (args.length == 1) {
-            fileName = args[0];
-            runFile(args[0]);
+        } else if (args.length - i == 1) {
+            fileName = args[i];
+            runFile(args[i]);
         } else {
             runPrompt();
         }
@@ -6,13 +6,27 @@ import com.example.token.Token;
 
 import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
 public abstract class Expr {
     abstract public Object accept(ExprVisitor v);
 
+    /**
+     * An expression that refers to a variable. The resolver records where the
+     * variable lives: {@code slot} in the frame {@code depth} environments up
+     * from the current one. A depth of -1 means the variable is global.
+     */
     @Getter
-    @AllArgsConstructor
-    public static class Assign extends Expr {
+    @Setter
+    public abstract static class Resolvable extends Expr {
+        private int depth = -1;
+        private int slot = -1;
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class Assign extends Resolvable {
         private final Token name;
         private final Expr value;
 
@@ -25,12 +39,26 @@ public abstract class Expr {
         }
     }
 
+    /**
+     * A binary operation. The resolver marks it {@code arithmetic} when its
+     * result is always a double, which lets the interpreter compute it on
+     * primitive doubles. Other operations start out uninitialized and are
+     * specialized by the interpreter to the operand types it observes.
+     */
     @Getter
-    @AllArgsConstructor
+    @RequiredArgsConstructor
     public static class Binary extends Expr {
         private final Expr left;
         private final Token operator;
         private final Expr right;
+        @Setter
+        private boolean arithmetic;
+        @Setter
+        private Specialization specialization = Specialization.UNINITIALIZED;
+
+        public enum Specialization {
+            UNINITIALIZED, INTEGER, NUMBER, STRING, GENERIC
+        }
 
         public Object accept(ExprVisitor v) {
             return v.visitBinaryExpr(this);
@@ -42,11 +70,14 @@ public abstract class Expr {
     }
 
     @Getter
-    @AllArgsConstructor
+    @RequiredArgsConstructor
     public static class Call extends Expr {
         private final Expr callee;
         private final Token paren;
         private final List<Expr> arguments;
+        // the value of the call is returned right away
+        @Setter
+        private boolean tailCall;
 
         public Object accept(ExprVisitor v) {
             return v.visitCallExpr(this);
@@ -58,11 +89,12 @@ public abstract class Expr {
     }
 
     @Getter
-    @AllArgsConstructor
+    @RequiredArgsConstructor
     public static class Get extends Expr {
         private final Expr object;
         private final Token name;
         private final Token operator;
+        private final InlineCache cache = new InlineCache();
 
         public Object accept(ExprVisitor v) {
             return v.visitGetExpr(this);
@@ -102,12 +134,13 @@ public abstract class Expr {
     }
 
     @Getter
-    @AllArgsConstructor
+    @RequiredArgsConstructor
     public static class Set extends Expr {
         private final Expr object;
         private final Token name;
         private final Expr value;
         private final Token operator;
+        private final InlineCache cache = new InlineCache();
 
         public Object accept(ExprVisitor v) {
             return v.visitSetExpr(this);
@@ -119,8 +152,8 @@ public abstract class Expr {
     }
 
     @Getter
-    @AllArgsConstructor
-    public static class Super extends Expr {
+    @RequiredArgsConstructor
+    public static class Super extends Resolvable {
         private final Token keyword;
         private final Token method;
 
@@ -134,8 +167,8 @@ public abstract class Expr {
     }
 
     @Getter
-    @AllArgsConstructor
-    public static class This extends Expr {
+    @RequiredArgsConstructor
+    public static class This extends Resolvable {
         private final Token name;
 
         public Object accept(ExprVisitor v) {
@@ -163,8 +196,8 @@ public abstract class Expr {
     }
 
     @Getter
-    @AllArgsConstructor
-    public static class Variable extends Expr {
+    @RequiredArgsConstructor
+    public static class Variable extends Resolvable {
         private final Token name;
 
         public Object accept(ExprVisitor v) {
@@ -177,9 +210,12 @@ public abstract class Expr {
     }
 
     @Getter
-    @AllArgsConstructor
+    @RequiredArgsConstructor
     public static class Array extends Expr {
         private final List<Expr> values;
+        // the elements, when they are all constants
+        @Setter
+        private List<Object> constant;
 
         public Object accept(ExprVisitor v) {
             return v.visitArrayExpr(this);
@@ -191,9 +227,12 @@ public abstract class Expr {
     }
 
     @Getter
-    @AllArgsConstructor
+    @RequiredArgsConstructor
     public static class Map extends Expr {
         private final java.util.Map<Expr, Expr> values;
+        // the entries, when keys and values are all constants
+        @Setter
+        private java.util.Map<Object, Object> constant;
 
         public Object accept(ExprVisitor v) {
             return v.visitMapExpr(this);
@@ -236,4 +275,27 @@ public abstract class Expr {
             return String.format("set(%s[%s], %s)", object, index, value);
         }
     }
+
+    /**
+     * A compound assignment to an index, such as {@code xs[f()] += 1}. The
+     * object and the index are evaluated once, both to read the element and
+     * to store the result of applying {@code operation} to it and the value.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class CompoundSetIndex extends Expr {
+        private final Expr object;
+        private final Expr index;
+        private final Token operation;
+        private final Expr value;
+        private final Token operator;
+
+        public Object accept(ExprVisitor v) {
+            return v.visitCompoundSetIndexExpr(this);
+        }
+
+        public String toString() {
+            return String.format("set(%s[%s], %s, %s)", object, index, operation.getType(), value);
+        }
+    }
 }
\ No newline at end of file
@@ -15,6 +15,8 @@ public interface ExprVisitor {
 
     Object visitSetIndexExpr(Expr.SetIndex expr);
 
+    Object visitCompoundSetIndexExpr(Expr.CompoundSetIndex expr);
+
     Object visitGroupingExpr(Expr.Grouping expr);
 
     Object visitLiteralExpr(Expr.Literal expr);
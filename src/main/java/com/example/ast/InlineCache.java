@@ -0,0 +1,33 @@
+package com.example.ast;
+
+/**
+ * Remembers what a property lookup at one site in the tree resolved to,
+ * keyed by the receiver's shape, compared by identity. The cache fills once
+ * and never changes after that: when {@link #SIZE} shapes are in it the site
+ * is megamorphic, and every other shape goes through the full lookup for
+ * good. The cache holds on to its shapes, so a shape no instance has any
+ * more stays alive as long as the tree does.
+ */
+public class InlineCache {
+    private static final int SIZE = 4;
+
+    private final Object[] keys = new Object[SIZE];
+    private final Object[] values = new Object[SIZE];
+    private int count;
+
+    public Object lookup(Object key) {
+        for (int i = 0; i < count; i++) {
+            if (keys[i] == key)
+                return values[i];
+        }
+        return null;
+    }
+
+    public void add(Object key, Object value) {
+        if (count == SIZE)
+            return;
+        keys[count] = key;
+        values[count] = value;
+        count++;
+    }
+}
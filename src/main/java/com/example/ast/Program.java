@@ -2,13 +2,20 @@ package com.example.ast;
 
 import java.util.List;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.Setter;
 
 @Getter
-@AllArgsConstructor
 public class Program {
     private List<Stmt> stmts;
+    // the resolver has already run over the statements, as it has for a
+    // program loaded from the cache
+    @Setter
+    private boolean resolved;
+
+    public Program(List<Stmt> stmts) {
+        this.stmts = stmts;
+    }
 
     public String toString() {
         return String.format("%s", stmts);
@@ -6,15 +6,19 @@ import com.example.token.Token;
 
 import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
 public abstract class Stmt {
 
     public abstract void accept(StmtVisitor v);
 
     @Getter
-    @AllArgsConstructor
+    @RequiredArgsConstructor
     public static class Block extends Stmt {
         private final List<Stmt> stmts;
+        @Setter
+        private int frameSize = 0;
 
         public void accept(StmtVisitor v) {
             v.visitBlockStmt(this);
@@ -26,11 +30,13 @@ public abstract class Stmt {
     }
 
     @Getter
-    @AllArgsConstructor
+    @RequiredArgsConstructor
     public static class Class extends Stmt {
         private final Token name;
         private final Expr superclass;
         private final List<Stmt.Function> methods;
+        @Setter
+        private int slot = -1;
 
         public void accept(StmtVisitor v) {
             v.visitClassStmt(this);
@@ -58,11 +64,20 @@ public abstract class Stmt {
     }
 
     @Getter
-    @AllArgsConstructor
+    @RequiredArgsConstructor
     public static class Function extends Stmt {
         private final Token name;
         private final List<Token> params;
         private final Stmt.Block body;
+        @Setter
+        private int slot = -1;
+        @Setter
+        private int frameSize = 0;
+        @Setter
+        private int calls;
+        // the compiled body, which only the JIT knows the type of
+        @Setter
+        private Object compiled;
 
         public void accept(StmtVisitor v) {
             v.visitFunctionStmt(this);
@@ -106,10 +121,12 @@ public abstract class Stmt {
     }
 
     @Getter
-    @AllArgsConstructor
+    @RequiredArgsConstructor
     public static class Let extends Stmt {
         private final Token name;
         private final Expr initializer;
+        @Setter
+        private int slot = -1;
 
         public void accept(StmtVisitor v) {
             v.visitLetStmt(this);
@@ -120,9 +137,43 @@ public abstract class Stmt {
         }
     }
 
+    /**
+     * Binds a module to a name. The path is relative to the directory of the
+     * file the import is in.
+     */
     @Getter
-    @AllArgsConstructor
-    public static class While extends Stmt {
+    @RequiredArgsConstructor
+    public static class Import extends Stmt {
+        private final Token keyword;
+        private final Token path;
+        private final Token name;
+        @Setter
+        private int slot = -1;
+
+        public void accept(StmtVisitor v) {
+            v.visitImportStmt(this);
+        }
+
+        public String toString() {
+            return String.format("import(%s, %s)", path.getLiteral(), name.getLiteral());
+        }
+    }
+
+    /**
+     * A statement that repeats its body. The counters let hot loops be
+     * compiled while they run; the compiled loop is kept as an Object, which
+     * only the JIT knows the type of.
+     */
+    @Getter
+    @Setter
+    public abstract static class Loop extends Stmt {
+        private int backEdges;
+        private Object compiled;
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class While extends Loop {
         private final Expr condition;
         private final Stmt body;
 
@@ -135,6 +186,28 @@ public abstract class Stmt {
         }
     }
 
+    @Getter
+    @RequiredArgsConstructor
+    public static class For extends Loop {
+        private final Stmt initializer;
+        private final Expr condition;
+        private final Expr increment;
+        private final Stmt body;
+        @Setter
+        private int frameSize = 0;
+        // nothing in the body can capture the frame of an iteration
+        @Setter
+        private boolean reuseBodyFrame;
+
+        public void accept(StmtVisitor v) {
+            v.visitForStmt(this);
+        }
+
+        public String toString() {
+            return String.format("(for %s %s %s %s)", initializer, condition, increment, body);
+        }
+    }
+
     @Getter
     @AllArgsConstructor
     public static class Break extends Stmt {
@@ -17,6 +17,10 @@ public interface StmtVisitor {
 
     void visitWhileStmt(Stmt.While stmt);
 
+    void visitForStmt(Stmt.For stmt);
+
+    void visitImportStmt(Stmt.Import stmt);
+
     void visitBreakStmt(Stmt.Break expr);
 
     void visitContinueStmt(Stmt.Continue expr);
@@ -0,0 +1,108 @@
+package com.example.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.example.ast.Program;
+
+/**
+ * Keeps the resolved and optimized tree of every script run in a file named
+ * after the SHA-256 of its source, so running an unchanged script again
+ * skips lexing, parsing, optimizing and resolving it. A cache file that is
+ * missing, unreadable or of another version is a miss; failing to write one
+ * only means the next run parses the script again.
+ */
+public final class AstCache {
+    static final int MAGIC = 0x4a4c4f58;
+    // changes whenever the tree, or what the resolver and optimizer record
+    // in it, does, so files written by older versions are ignored
+    static final int VERSION = 3;
+
+    private final Path directory;
+
+    public AstCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * The cache in the directory named by the {@code jlox.cache} property,
+     * or in {@code ~/.cache/jlox}.
+     */
+    public static AstCache standard() {
+        String directory = System.getProperty("jlox.cache");
+        if (directory != null)
+            return new AstCache(Paths.get(directory));
+        return new AstCache(Paths.get(System.getProperty("user.home"), ".cache", "jlox"));
+    }
+
+    public static String key(ByteBuffer source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(source.duplicate());
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest())
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    Path file(String key) {
+        return directory.resolve(key + ".ast");
+    }
+
+    /**
+     * Returns the program cached under the key, already resolved, or null.
+     */
+    public Program load(String key) {
+        Path file = file(key);
+        if (!Files.isRegularFile(file))
+            return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new AstReader(bytes).program();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Caches a resolved program under the key. The file is written under
+     * another name and moved in place, so a run never reads half of one.
+     */
+    public void store(String key, Program program) {
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            byte[] bytes = new AstWriter().program(program);
+            temp = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temp, bytes);
+            try {
+                Files.move(temp, file(key), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file(key), StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } catch (IOException | IllegalArgumentException e) {
+            // the script runs the same without its cache
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // nothing else to clean up
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package com.example.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.example.ast.Expr;
+import com.example.ast.Program;
+import com.example.ast.Stmt;
+import com.example.interpreter.ScriptList;
+import com.example.interpreter.ScriptMap;
+import com.example.token.Symbol;
+import com.example.token.SymbolTable;
+import com.example.token.Token;
+import com.example.token.TokenType;
+
+/**
+ * Reads a tree written by {@link AstWriter} back, with everything the
+ * resolver and optimizer recorded on it, so it can run without being
+ * resolved again. Identifiers are interned again as they are read.
+ */
+class AstReader {
+    static final int NULL = 0;
+
+    // constants
+    static final int TRUE = 1;
+    static final int FALSE = 2;
+    static final int LONG = 3;
+    static final int DOUBLE = 4;
+    static final int STRING = 5;
+    static final int LIST = 6;
+    static final int MAP = 7;
+
+    // tokens
+    static final int TOKEN = 1;
+    static final int SYMBOL = 2;
+
+    // expressions
+    static final int ASSIGN = 1;
+    static final int BINARY = 2;
+    static final int CALL = 3;
+    static final int GET = 4;
+    static final int SET = 5;
+    static final int GET_INDEX = 6;
+    static final int SET_INDEX = 7;
+    static final int GROUPING = 8;
+    static final int LITERAL = 9;
+    static final int SUPER = 10;
+    static final int THIS = 11;
+    static final int UNARY = 12;
+    static final int VARIABLE = 13;
+    static final int ARRAY = 14;
+    static final int MAP_EXPR = 15;
+    static final int COMPOUND_SET_INDEX = 16;
+
+    // statements
+    static final int BLOCK = 1;
+    static final int CLASS = 2;
+    static final int EXPR_STMT = 3;
+    static final int FUNCTION = 4;
+    static final int IF = 5;
+    static final int RETURN = 6;
+    static final int LET = 7;
+    static final int WHILE = 8;
+    static final int FOR = 9;
+    static final int BREAK = 10;
+    static final int CONTINUE = 11;
+    static final int IMPORT = 12;
+
+    private static final TokenType[] types = TokenType.values();
+
+    private final ByteBuffer in;
+    private final List<String> strings = new ArrayList<>();
+    private final List<Symbol> symbols = new ArrayList<>();
+    private int line;
+
+    AstReader(ByteBuffer in) {
+        this.in = in;
+    }
+
+    Program program() throws IOException {
+        if (in.getInt() != AstCache.MAGIC || in.getInt() != AstCache.VERSION)
+            throw new IOException("Not a cache file of this version");
+        Program program = new Program(stmts());
+        if (in.hasRemaining())
+            throw new IOException("Trailing bytes after the program");
+        program.setResolved(true);
+        return program;
+    }
+
+    private int tag() {
+        return in.get() & 0xff;
+    }
+
+    private int unsigned() {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = tag();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+
+    private int number() {
+        return unsigned() - 1;
+    }
+
+    /**
+     * Reads the number of elements or bytes that follow. Each takes at least
+     * a byte, so a corrupt count fails here instead of being allocated for.
+     */
+    private int size() throws IOException {
+        int size = number();
+        if (size < 0 || size > in.remaining())
+            throw new IOException("Corrupt size " + size);
+        return size;
+    }
+
+    private boolean flag() {
+        return tag() != 0;
+    }
+
+    /**
+     * Reads a string, returning its number in the order strings were first
+     * written.
+     */
+    private int stringIndex() throws IOException {
+        int index = number();
+        if (index >= 0)
+            return index;
+        byte[] bytes = new byte[size()];
+        in.get(bytes);
+        strings.add(new String(bytes, StandardCharsets.UTF_8));
+        symbols.add(null);
+        return strings.size() - 1;
+    }
+
+    private String string() throws IOException {
+        return strings.get(stringIndex());
+    }
+
+    /**
+     * Reads a name and interns it, once for every distinct name.
+     */
+    private Symbol symbol() throws IOException {
+        int index = stringIndex();
+        Symbol symbol = symbols.get(index);
+        if (symbol == null) {
+            symbol = SymbolTable.intern(strings.get(index));
+            symbols.set(index, symbol);
+        }
+        return symbol;
+    }
+
+    private Object value() throws IOException {
+        int tag = tag();
+        switch (tag) {
+            case NULL:
+                return null;
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case LONG: {
+                long bits = 0;
+                for (int shift = 0;; shift += 7) {
+                    int b = tag();
+                    bits |= (long) (b & 0x7f) << shift;
+                    if ((b & 0x80) == 0)
+                        return (bits >>> 1) ^ -(bits & 1);
+                }
+            }
+            case DOUBLE:
+                return in.getDouble();
+            case STRING:
+                return string();
+            case LIST: {
+                int size = size();
+                ScriptList list = new ScriptList(size);
+                for (int i = 0; i < size; i++)
+                    list.add(value());
+                return list;
+            }
+            case MAP: {
+                int size = size();
+                ScriptMap map = new ScriptMap(size);
+                for (int i = 0; i < size; i++)
+                    map.store(value(), value());
+                return map;
+            }
+            default:
+                throw new IOException("Unknown constant tag " + tag);
+        }
+    }
+
+    private Token token() throws IOException {
+        int tag = tag();
+        if (tag == NULL)
+            return null;
+        TokenType type = types[tag()];
+        int delta = unsigned();
+        line += (delta >>> 1) ^ -(delta & 1);
+        int col = number();
+        if (tag == SYMBOL)
+            return new Token(type, line, col, symbol());
+        return new Token(type, line, col, value());
+    }
+
+    private <T extends Expr.Resolvable> T resolvable(T expr) {
+        expr.setDepth(number());
+        expr.setSlot(number());
+        return expr;
+    }
+
+    private List<Expr> exprs() throws IOException {
+        int size = size();
+        List<Expr> exprs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            exprs.add(expr());
+        return exprs;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Expr expr() throws IOException {
+        int tag = tag();
+        switch (tag) {
+            case NULL:
+                return null;
+            case ASSIGN: {
+                Token name = token();
+                return resolvable(new Expr.Assign(name, expr()));
+            }
+            case BINARY: {
+                Expr left = expr();
+                Token operator = token();
+                Expr.Binary binary = new Expr.Binary(left, operator, expr());
+                binary.setArithmetic(flag());
+                return binary;
+            }
+            case CALL: {
+                Expr callee = expr();
+                Token paren = token();
+                Expr.Call call = new Expr.Call(callee, paren, exprs());
+                call.setTailCall(flag());
+                return call;
+            }
+            case GET: {
+                Expr object = expr();
+                Token name = token();
+                return new Expr.Get(object, name, token());
+            }
+            case SET: {
+                Expr object = expr();
+                Token name = token();
+                Expr value = expr();
+                return new Expr.Set(object, name, value, token());
+            }
+            case GET_INDEX: {
+                Expr object = expr();
+                Expr index = expr();
+                return new Expr.GetIndex(object, index, token());
+            }
+            case SET_INDEX: {
+                Expr object = expr();
+                Expr index = expr();
+                Expr value = expr();
+                return new Expr.SetIndex(object, index, value, token());
+            }
+            case COMPOUND_SET_INDEX: {
+                Expr object = expr();
+                Expr index = expr();
+                Token operation = token();
+                Expr value = expr();
+                return new Expr.CompoundSetIndex(object, index, operation, value, token());
+            }
+            case GROUPING:
+                return new Expr.Grouping(expr());
+            case LITERAL:
+                return new Expr.Literal(value());
+            case SUPER: {
+                Token keyword = token();
+                return resolvable(new Expr.Super(keyword, token()));
+            }
+            case THIS:
+                return resolvable(new Expr.This(token()));
+            case UNARY: {
+                Token operator = token();
+                return new Expr.Unary(operator, expr());
+            }
+            case VARIABLE:
+                return resolvable(new Expr.Variable(token()));
+            case ARRAY: {
+                Expr.Array array = new Expr.Array(exprs());
+                array.setConstant((List<Object>) value());
+                return array;
+            }
+            case MAP_EXPR: {
+                int size = size();
+                Map<Expr, Expr> values = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++)
+                    values.put(expr(), expr());
+                Expr.Map map = new Expr.Map(values);
+                map.setConstant((Map<Object, Object>) value());
+                return map;
+            }
+            default:
+                throw new IOException("Unknown expression tag " + tag);
+        }
+    }
+
+    private List<Stmt> stmts() throws IOException {
+        int size = size();
+        List<Stmt> stmts = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            stmts.add(stmt());
+        return stmts;
+    }
+
+    private Stmt stmt() throws IOException {
+        int tag = tag();
+        switch (tag) {
+            case NULL:
+                return null;
+            case BLOCK: {
+                Stmt.Block block = new Stmt.Block(stmts());
+                block.setFrameSize(number());
+                return block;
+            }
+            case CLASS: {
+                Token name = token();
+                Expr superclass = expr();
+                List<Stmt.Function> methods = new ArrayList<>();
+                for (Stmt method : stmts())
+                    methods.add((Stmt.Function) method);
+                Stmt.Class klass = new Stmt.Class(name, superclass, methods);
+                klass.setSlot(number());
+                return klass;
+            }
+            case EXPR_STMT:
+                return new Stmt.ExprStmt(expr());
+            case FUNCTION: {
+                Token name = token();
+                int count = size();
+                List<Token> params = new ArrayList<>(count);
+                for (int i = 0; i < count; i++)
+                    params.add(token());
+                Stmt.Function function = new Stmt.Function(name, params, (Stmt.Block) stmt());
+                function.setSlot(number());
+                function.setFrameSize(number());
+                return function;
+            }
+            case IF: {
+                Expr condition = expr();
+                Stmt thenBranch = stmt();
+                return new Stmt.If(condition, thenBranch, stmt());
+            }
+            case RETURN: {
+                Token keyword = token();
+                return new Stmt.Return(keyword, expr());
+            }
+            case LET: {
+                Token name = token();
+                Stmt.Let let = new Stmt.Let(name, expr());
+                let.setSlot(number());
+                return let;
+            }
+            case WHILE: {
+                Expr condition = expr();
+                return new Stmt.While(condition, stmt());
+            }
+            case FOR: {
+                Stmt initializer = stmt();
+                Expr condition = expr();
+                Expr increment = expr();
+                Stmt.For loop = new Stmt.For(initializer, condition, increment, stmt());
+                loop.setFrameSize(number());
+                loop.setReuseBodyFrame(flag());
+                return loop;
+            }
+            case IMPORT: {
+                Token keyword = token();
+                Token path = token();
+                Stmt.Import stmt = new Stmt.Import(keyword, path, token());
+                stmt.setSlot(number());
+                return stmt;
+            }
+            case BREAK:
+                return new Stmt.Break(token());
+            case CONTINUE:
+                return new Stmt.Continue(token());
+            default:
+                throw new IOException("Unknown statement tag " + tag);
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package com.example.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.example.ast.Expr;
+import com.example.ast.ExprVisitor;
+import com.example.ast.Program;
+import com.example.ast.Stmt;
+import com.example.ast.StmtVisitor;
+import com.example.token.Token;
+
+/**
+ * Writes a resolved tree in the format {@link AstReader} reads. Every node
+ * is a tag followed by its children and what the resolver and optimizer
+ * recorded on it; integers are variable length, token lines are relative
+ * to the token before and every distinct string is written once and
+ * referred to by number afterwards.
+ */
+class AstWriter implements ExprVisitor, StmtVisitor {
+    private byte[] bytes = new byte[4096];
+    private int size;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private int line;
+
+    byte[] program(Program program) {
+        integer(AstCache.MAGIC);
+        integer(AstCache.VERSION);
+        stmts(program.getStmts());
+        return Arrays.copyOf(bytes, size);
+    }
+
+    private void tag(int tag) {
+        if (size == bytes.length)
+            bytes = Arrays.copyOf(bytes, size * 2);
+        bytes[size++] = (byte) tag;
+    }
+
+    private void integer(int value) {
+        for (int shift = 24; shift >= 0; shift -= 8)
+            tag(value >>> shift);
+    }
+
+    private void unsigned(int value) {
+        while ((value & ~0x7f) != 0) {
+            tag((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        tag(value);
+    }
+
+    /**
+     * Writes an int that is at least -1, which is what every slot, depth and
+     * size is, in as few bytes as it needs.
+     */
+    private void number(int value) {
+        unsigned(value + 1);
+    }
+
+    private void flag(boolean value) {
+        tag(value ? 1 : 0);
+    }
+
+    private void string(String value) {
+        Integer index = strings.get(value);
+        if (index != null) {
+            number(index);
+            return;
+        }
+        number(-1);
+        strings.put(value, strings.size());
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        number(utf8.length);
+        for (byte b : utf8)
+            tag(b);
+    }
+
+    private void value(Object value) {
+        if (value == null) {
+            tag(AstReader.NULL);
+        } else if (value instanceof Boolean) {
+            tag((Boolean) value ? AstReader.TRUE : AstReader.FALSE);
+        } else if (value instanceof Long) {
+            tag(AstReader.LONG);
+            long number = (Long) value;
+            long bits = (number << 1) ^ (number >> 63);
+            while ((bits & ~0x7fL) != 0) {
+                tag((int) (bits & 0x7f) | 0x80);
+                bits >>>= 7;
+            }
+            tag((int) bits);
+        } else if (value instanceof Double) {
+            tag(AstReader.DOUBLE);
+            long bits = Double.doubleToRawLongBits((Double) value);
+            integer((int) (bits >>> 32));
+            integer((int) bits);
+        } else if (value instanceof CharSequence) {
+            tag(AstReader.STRING);
+            string(value.toString());
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            tag(AstReader.LIST);
+            number(list.size());
+            for (Object element : list)
+                value(element);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            tag(AstReader.MAP);
+            number(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                value(entry.getKey());
+                value(entry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("Cannot cache a constant of type " + value.getClass().getSimpleName());
+        }
+    }
+
+    private void token(Token token) {
+        if (token == null) {
+            tag(AstReader.NULL);
+            return;
+        }
+        tag(token.getSymbol() != null ? AstReader.SYMBOL : AstReader.TOKEN);
+        tag(token.getType().ordinal());
+        // tokens mostly share the line of the one before, so the line is
+        // written as the difference, zigzag encoded
+        int delta = token.getLine() - line;
+        unsigned((delta << 1) ^ (delta >> 31));
+        line = token.getLine();
+        number(token.getCol());
+        if (token.getSymbol() != null)
+            string(token.getSymbol().getName());
+        else
+            value(token.getLiteral());
+    }
+
+    private void expr(Expr expr) {
+        if (expr == null)
+            tag(AstReader.NULL);
+        else
+            expr.accept(this);
+    }
+
+    private void exprs(List<Expr> exprs) {
+        number(exprs.size());
+        for (Expr expr : exprs)
+            expr.accept(this);
+    }
+
+    private void stmt(Stmt stmt) {
+        if (stmt == null)
+            tag(AstReader.NULL);
+        else
+            stmt.accept(this);
+    }
+
+    private void stmts(List<? extends Stmt> stmts) {
+        number(stmts.size());
+        for (Stmt stmt : stmts)
+            stmt.accept(this);
+    }
+
+    private void resolvable(Expr.Resolvable expr) {
+        number(expr.getDepth());
+        number(expr.getSlot());
+    }
+
+    @Override
+    public Object visitAssignExpr(Expr.Assign expr) {
+        tag(AstReader.ASSIGN);
+        token(expr.getName());
+        expr(expr.getValue());
+        resolvable(expr);
+        return null;
+    }
+
+    @Override
+    public Object visitBinaryExpr(Expr.Binary expr) {
+        tag(AstReader.BINARY);
+        expr(expr.getLeft());
+        token(expr.getOperator());
+        expr(expr.getRight());
+        flag(expr.isArithmetic());
+        return null;
+    }
+
+    @Override
+    public Object visitCallExpr(Expr.Call expr) {
+        tag(AstReader.CALL);
+        expr(expr.getCallee());
+        token(expr.getParen());
+        exprs(expr.getArguments());
+        flag(expr.isTailCall());
+        return null;
+    }
+
+    @Override
+    public Object visitGetExpr(Expr.Get expr) {
+        tag(AstReader.GET);
+        expr(expr.getObject());
+        token(expr.getName());
+        token(expr.getOperator());
+        return null;
+    }
+
+    @Override
+    public Object visitSetExpr(Expr.Set expr) {
+        tag(AstReader.SET);
+        expr(expr.getObject());
+        token(expr.getName());
+        expr(expr.getValue());
+        token(expr.getOperator());
+        return null;
+    }
+
+    @Override
+    public Object visitGetIndexExpr(Expr.GetIndex expr) {
+        tag(AstReader.GET_INDEX);
+        expr(expr.getObject());
+        expr(expr.getIndex());
+        token(expr.getOperator());
+        return null;
+    }
+
+    @Override
+    public Object visitSetIndexExpr(Expr.SetIndex expr) {
+        tag(AstReader.SET_INDEX);
+        expr(expr.getObject());
+        expr(expr.getIndex());
+        expr(expr.getValue());
+        token(expr.getOperator());
+        return null;
+    }
+
+    @Override
+    public Object visitCompoundSetIndexExpr(Expr.CompoundSetIndex expr) {
+        tag(AstReader.COMPOUND_SET_INDEX);
+        expr(expr.getObject());
+        expr(expr.getIndex());
+        token(expr.getOperation());
+        expr(expr.getValue());
+        token(expr.getOperator());
+        return null;
+    }
+
+    @Override
+    public Object visitGroupingExpr(Expr.Grouping expr) {
+        tag(AstReader.GROUPING);
+        expr(expr.getExpression());
+        return null;
+    }
+
+    @Override
+    public Object visitLiteralExpr(Expr.Literal expr) {
+        tag(AstReader.LITERAL);
+        value(expr.getValue());
+        return null;
+    }
+
+    @Override
+    public Object visitSuperExpr(Expr.Super expr) {
+        tag(AstReader.SUPER);
+        token(expr.getKeyword());
+        token(expr.getMethod());
+        resolvable(expr);
+        return null;
+    }
+
+    @Override
+    public Object visitThisExpr(Expr.This expr) {
+        tag(AstReader.THIS);
+        token(expr.getName());
+        resolvable(expr);
+        return null;
+    }
+
+    @Override
+    public Object visitUnaryExpr(Expr.Unary expr) {
+        tag(AstReader.UNARY);
+        token(expr.getOperator());
+        expr(expr.getRight());
+        return null;
+    }
+
+    @Override
+    public Object visitVariableExpr(Expr.Variable expr) {
+        tag(AstReader.VARIABLE);
+        token(expr.getName());
+        resolvable(expr);
+        return null;
+    }
+
+    @Override
+    public Object visitArrayExpr(Expr.Array expr) {
+        tag(AstReader.ARRAY);
+        exprs(expr.getValues());
+        value(expr.getConstant());
+        return null;
+    }
+
+    @Override
+    public Object visitMapExpr(Expr.Map expr) {
+        tag(AstReader.MAP_EXPR);
+        number(expr.getValues().size());
+        for (Map.Entry<Expr, Expr> entry : expr.getValues().entrySet()) {
+            expr(entry.getKey());
+            expr(entry.getValue());
+        }
+        value(expr.getConstant());
+        return null;
+    }
+
+    @Override
+    public void visitBlockStmt(Stmt.Block stmt) {
+        tag(AstReader.BLOCK);
+        stmts(stmt.getStmts());
+        number(stmt.getFrameSize());
+    }
+
+    @Override
+    public void visitClassStmt(Stmt.Class stmt) {
+        tag(AstReader.CLASS);
+        token(stmt.getName());
+        expr(stmt.getSuperclass());
+        stmts(stmt.getMethods());
+        number(stmt.getSlot());
+    }
+
+    @Override
+    public void visitExprStmt(Stmt.ExprStmt stmt) {
+        tag(AstReader.EXPR_STMT);
+        expr(stmt.getExpression());
+    }
+
+    @Override
+    public void visitFunctionStmt(Stmt.Function stmt) {
+        tag(AstReader.FUNCTION);
+        token(stmt.getName());
+        number(stmt.getParams().size());
+        for (Token param : stmt.getParams())
+            token(param);
+        stmt(stmt.getBody());
+        number(stmt.getSlot());
+        number(stmt.getFrameSize());
+    }
+
+    @Override
+    public void visitIfStmt(Stmt.If stmt) {
+        tag(AstReader.IF);
+        expr(stmt.getCondition());
+        stmt(stmt.getThenBranch());
+        stmt(stmt.getElseBranch());
+    }
+
+    @Override
+    public void visitReturnStmt(Stmt.Return stmt) {
+        tag(AstReader.RETURN);
+        token(stmt.getKeyword());
+        expr(stmt.getValue());
+    }
+
+    @Override
+    public void visitLetStmt(Stmt.Let stmt) {
+        tag(AstReader.LET);
+        token(stmt.getName());
+        expr(stmt.getInitializer());
+        number(stmt.getSlot());
+    }
+
+    @Override
+    public void visitWhileStmt(Stmt.While stmt) {
+        tag(AstReader.WHILE);
+        expr(stmt.getCondition());
+        stmt(stmt.getBody());
+    }
+
+    @Override
+    public void visitForStmt(Stmt.For stmt) {
+        tag(AstReader.FOR);
+        stmt(stmt.getInitializer());
+        expr(stmt.getCondition());
+        expr(stmt.getIncrement());
+        stmt(stmt.getBody());
+        number(stmt.getFrameSize());
+        flag(stmt.isReuseBodyFrame());
+    }
+
+    @Override
+    public void visitImportStmt(Stmt.Import stmt) {
+        tag(AstReader.IMPORT);
+        token(stmt.getKeyword());
+        token(stmt.getPath());
+        token(stmt.getName());
+        number(stmt.getSlot());
+    }
+
+    @Override
+    public void visitBreakStmt(Stmt.Break stmt) {
+        tag(AstReader.BREAK);
+        token(stmt.getKeyword());
+    }
+
+    @Override
+    public void visitContinueStmt(Stmt.Continue stmt) {
+        tag(AstReader.CONTINUE);
+        token(stmt.getKeyword());
+    }
+}
@@ -1,19 +1,51 @@
 package com.example.environment;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+import com.example.token.Symbol;
+import com.example.token.SymbolTable;
 import com.example.token.Token;
 
+/**
+ * A frame of variables. The global environment keeps its variables in
+ * cells indexed by the id of their {@link Symbol}, so a global reference
+ * is resolved by the lexer and costs two array loads instead of hashing
+ * the name; every other environment is a fixed size array of slots
+ * assigned by the {@link Resolver}.
+ */
 public class Environment {
-    private final Map<String, Object> values = new HashMap<>();
+    private static final Object UNDEFINED = new Object();
+
+    /**
+     * The value of a global. Declaring a global again, which only the REPL
+     * allows, updates its cell in place.
+     */
+    private static final class Cell {
+        Object value = UNDEFINED;
+    }
+
+    private Cell[] cells;
+    private boolean redeclare;
+    private final Object[] slots;
     private final Environment enclosing;
 
     public Environment() {
+        cells = new Cell[Math.max(SymbolTable.size(), 64)];
+        slots = null;
         enclosing = null;
     }
 
-    public Environment(Environment enclosing) {
+    public Environment(Environment enclosing, int size) {
+        this(enclosing, new Object[size]);
+    }
+
+    /**
+     * A frame that takes over the given array as its slots, which is how a
+     * called function adopts its argument array.
+     */
+    public Environment(Environment enclosing, Object[] slots) {
+        this.cells = null;
+        this.slots = slots;
         this.enclosing = enclosing;
     }
 
@@ -21,32 +53,69 @@ public class Environment {
         return enclosing;
     }
 
+    /**
+     * Lets a declaration replace a global that already exists instead of
+     * failing, which is what the REPL needs when a line is entered again.
+     */
+    public void setRedeclare(boolean redeclare) {
+        this.redeclare = redeclare;
+    }
+
+    private Cell cell(Symbol symbol) {
+        int id = symbol.getId();
+        if (id >= cells.length)
+            cells = Arrays.copyOf(cells, Math.max(id + 1, cells.length * 2));
+        Cell cell = cells[id];
+        if (cell == null) {
+            cell = new Cell();
+            cells[id] = cell;
+        }
+        return cell;
+    }
+
+    private Cell cell(Token name) {
+        Symbol symbol = name.getSymbol();
+        if (symbol == null)
+            symbol = SymbolTable.intern((String) name.getLiteral());
+        return cell(symbol);
+    }
+
     public void define(String name, Object value) {
-        values.put(name, value);
+        cell(SymbolTable.intern(name)).value = value;
+    }
+
+    public void define(Token name, Object value) {
+        cell(name).value = value;
+    }
+
+    public void define(int slot, Object value) {
+        slots[slot] = value;
     }
 
     public Object get(Token name) {
-        if (values.containsKey(name.getLiteral())) {
-            return values.get(name.getLiteral());
-        }
+        Object value = cell(name).value;
+        if (value != UNDEFINED)
+            return value;
         throw new RuntimeError(
                 String.format("Undefined variable '%s'", name.getLiteral()),
                 name);
     }
 
     public void declare(Token name, Object value) {
-        if (values.containsKey(name.getLiteral())) {
+        Cell cell = cell(name);
+        if (cell.value != UNDEFINED && !redeclare) {
             throw new RuntimeError(
                     String.format("Variable '%s' already declared",
                             name.getLiteral()),
                     name);
         }
-        values.put((String) name.getLiteral(), value);
+        cell.value = value;
     }
 
     public void assign(Token name, Object value) {
-        if (values.containsKey(name.getLiteral())) {
-            values.put((String) name.getLiteral(), value);
+        Cell cell = cell(name);
+        if (cell.value != UNDEFINED) {
+            cell.value = value;
             return;
         }
         throw new RuntimeError(
@@ -54,12 +123,12 @@ public class Environment {
                 name);
     }
 
-    public Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    public Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
     }
 
-    public void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put((String) name.getLiteral(), value);
+    public void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 
     private Environment ancestor(int distance) {
@@ -71,9 +140,11 @@ public class Environment {
     }
 
     public Object deleteAt(int distance, String name) {
-        Environment environment = ancestor(distance);
-        if (environment.values.containsKey(name)) {
-            return environment.values.remove(name);
+        Cell cell = ancestor(distance).cell(SymbolTable.intern(name));
+        if (cell.value != UNDEFINED) {
+            Object value = cell.value;
+            cell.value = UNDEFINED;
+            return value;
         }
         throw new RuntimeError(
                 String.format("Undefined variable '%s' cannot be deleted", name),
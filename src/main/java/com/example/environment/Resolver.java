@@ -1,6 +1,7 @@
 package com.example.environment;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -9,6 +10,7 @@ import com.example.ast.Expr.Array;
 import com.example.ast.Expr.Assign;
 import com.example.ast.Expr.Binary;
 import com.example.ast.Expr.Call;
+import com.example.ast.Expr.CompoundSetIndex;
 import com.example.ast.Expr.Get;
 import com.example.ast.Expr.GetIndex;
 import com.example.ast.Expr.Grouping;
@@ -29,16 +31,39 @@ import com.example.ast.Stmt.Continue;
 import com.example.ast.Stmt.ExprStmt;
 import com.example.ast.Stmt.Function;
 import com.example.ast.Stmt.If;
+import com.example.ast.Stmt.Import;
 import com.example.ast.Stmt.Let;
 import com.example.ast.Stmt.Return;
 import com.example.ast.Stmt.While;
 import com.example.interpreter.CustomClass;
 import com.example.token.Token;
+import com.example.token.TokenType;
 import com.example.ast.StmtVisitor;
 
 public class Resolver implements ExprVisitor, StmtVisitor {
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    private final Stack<Scope> scopes = new Stack<>();
+
+    /**
+     * A lexical scope. Every variable declared in it gets the next free slot of
+     * the {@link Environment} frame the interpreter creates for the scope.
+     */
+    private static class Scope {
+        private final Map<String, Boolean> defined = new HashMap<>();
+        private final Map<String, Integer> slots = new HashMap<>();
+        // names given a slot before their declaration is reached
+        private final java.util.Set<String> hoisted = new HashSet<>();
+
+        int declare(String name) {
+            int slot = slots.size();
+            defined.put(name, false);
+            slots.put(name, slot);
+            return slot;
+        }
+
+        int size() {
+            return slots.size();
+        }
+    }
 
     private enum FunctionType {
         NONE, FUNCTION, METHOD, INITIALIZER
@@ -58,27 +83,67 @@ public class Resolver implements ExprVisitor, StmtVisitor {
         NONE, LOOP
     }
 
+    // functions and classes resolved so far, each of them can capture the
+    // frames around it
+    private int closures = 0;
+
+    // the number of scopes around the top level of the file being resolved
+    private int topLevel = 0;
+
     public void resolve(List<Stmt> stmts) {
         for (Stmt stmt : stmts)
             stmt.accept(this);
     }
 
-    public int getDepth(Expr expr) {
-        if (!locals.containsKey(expr))
-            return -1;
-        return locals.get(expr);
+    /**
+     * Resolves the top level of a module as a scope of its own, so what the
+     * module declares lives in a frame of the module rather than in the
+     * globals of whoever imports it. Every top-level name gets its slot up
+     * front, which lets the functions of a module refer to each other in
+     * any order. Returns the slot of each top-level name.
+     */
+    public Map<String, Integer> resolveModule(List<Stmt> stmts) {
+        beginScope();
+        Scope scope = scopes.peek();
+        for (Stmt stmt : stmts) {
+            Token name = declaredName(stmt);
+            if (name != null && !scope.slots.containsKey(name.getLiteral())) {
+                scope.declare((String) name.getLiteral());
+                scope.defined.put((String) name.getLiteral(), true);
+                scope.hoisted.add((String) name.getLiteral());
+            }
+        }
+        topLevel = scopes.size();
+        resolve(stmts);
+        topLevel = 0;
+        endScope();
+        return scope.slots;
+    }
+
+    private static Token declaredName(Stmt stmt) {
+        if (stmt instanceof Let)
+            return ((Let) stmt).getName();
+        if (stmt instanceof Function)
+            return ((Function) stmt).getName();
+        if (stmt instanceof Class)
+            return ((Class) stmt).getName();
+        if (stmt instanceof Import)
+            return ((Import) stmt).getName();
+        return null;
     }
 
     @Override
     public void visitBlockStmt(Block stmt) {
         beginScope();
         resolve(stmt.getStmts());
+        stmt.setFrameSize(scopes.peek().size());
         endScope();
     }
 
     @Override
     public void visitClassStmt(Class stmt) {
-        declareVariable(stmt.getName());
+        closures++;
+        stmt.setSlot(declareVariable(stmt.getName()));
         defineVariable(stmt.getName());
 
         ClassType enclosingClass = currentClass;
@@ -88,18 +153,21 @@ public class Resolver implements ExprVisitor, StmtVisitor {
             currentClass = ClassType.SUBCLASS;
             stmt.getSuperclass().accept(this);
             beginScope();
-            scopes.peek().put("super", true);
+            scopes.peek().declare("super");
+            defineVariable("super");
         }
 
         beginScope();
-        scopes.peek().put("this", true);
+        scopes.peek().declare("this");
+        defineVariable("this");
 
         for (Function method : stmt.getMethods()) {
             FunctionType declaration = FunctionType.METHOD;
-            if (method.getName().getLiteral().equals(CustomClass.constructor))
+            if (method.getName().getSymbol() == CustomClass.constructor)
                 declaration = FunctionType.INITIALIZER;
             resolveFunction(method, declaration);
         }
+        endScope();
         if (stmt.getSuperclass() != null)
             endScope();
 
@@ -109,20 +177,27 @@ public class Resolver implements ExprVisitor, StmtVisitor {
     void resolveFunction(Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        // break and continue cannot reach a loop outside the function
+        LoopType enclosingLoop = currentLoop;
+        currentLoop = LoopType.NONE;
 
+        // parameters and the body share the frame created for each call
         beginScope();
         for (Token param : function.getParams()) {
             declareVariable(param);
             defineVariable(param);
         }
-        function.getBody().accept(this);
+        resolve(function.getBody().getStmts());
+        function.setFrameSize(scopes.peek().size());
         endScope();
+        currentLoop = enclosingLoop;
         currentFunction = enclosingFunction;
     }
 
     @Override
     public void visitFunctionStmt(Stmt.Function stmt) {
-        declareVariable(stmt.getName());
+        closures++;
+        stmt.setSlot(declareVariable(stmt.getName()));
         defineVariable(stmt.getName());
         resolveFunction(stmt, FunctionType.FUNCTION);
     }
@@ -147,18 +222,28 @@ public class Resolver implements ExprVisitor, StmtVisitor {
         if (stmt.getValue() != null) {
             if (currentFunction == FunctionType.INITIALIZER)
                 throw new RuntimeError("Cannot return a value from an initializer.", stmt.getKeyword());
+            if (stmt.getValue() instanceof Call)
+                ((Call) stmt.getValue()).setTailCall(true);
             stmt.getValue().accept(this);
         }
     }
 
     @Override
     public void visitLetStmt(Let stmt) {
-        declareVariable(stmt.getName());
+        stmt.setSlot(declareVariable(stmt.getName()));
         if (stmt.getInitializer() != null)
             stmt.getInitializer().accept(this);
         defineVariable(stmt.getName());
     }
 
+    @Override
+    public void visitImportStmt(Import stmt) {
+        if (currentFunction != FunctionType.NONE || scopes.size() != topLevel)
+            throw new RuntimeError("Can only import at the top level of a file.", stmt.getKeyword());
+        stmt.setSlot(declareVariable(stmt.getName()));
+        defineVariable(stmt.getName());
+    }
+
     @Override
     public void visitWhileStmt(While stmt) {
         LoopType enclosingLoop = currentLoop;
@@ -168,6 +253,26 @@ public class Resolver implements ExprVisitor, StmtVisitor {
         currentLoop = enclosingLoop;
     }
 
+    @Override
+    public void visitForStmt(Stmt.For stmt) {
+        LoopType enclosingLoop = currentLoop;
+        currentLoop = LoopType.LOOP;
+        // the loop variables share one frame for the whole loop
+        beginScope();
+        if (stmt.getInitializer() != null)
+            stmt.getInitializer().accept(this);
+        if (stmt.getCondition() != null)
+            stmt.getCondition().accept(this);
+        if (stmt.getIncrement() != null)
+            stmt.getIncrement().accept(this);
+        int enclosingClosures = closures;
+        stmt.getBody().accept(this);
+        stmt.setReuseBodyFrame(closures == enclosingClosures);
+        stmt.setFrameSize(scopes.peek().size());
+        endScope();
+        currentLoop = enclosingLoop;
+    }
+
     @Override
     public Object visitAssignExpr(Assign expr) {
         expr.getValue().accept(this);
@@ -179,9 +284,42 @@ public class Resolver implements ExprVisitor, StmtVisitor {
     public Object visitBinaryExpr(Binary expr) {
         expr.getLeft().accept(this);
         expr.getRight().accept(this);
+        switch (expr.getOperator().getType()) {
+            case Divide:
+            case Exponent:
+                expr.setArithmetic(true);
+                break;
+            case Plus:
+            case Minus:
+            case Multiply:
+            case Modulo:
+                expr.setArithmetic(isFloating(expr.getLeft()) || isFloating(expr.getRight()));
+                break;
+            default:
+                break;
+        }
         return null;
     }
 
+    /**
+     * Whether an expression always evaluates to a double, judging from its
+     * shape alone. Integers only stay integers when both operands are, so
+     * an operation with one such operand is floating too; a {@code +} with
+     * one has to be numeric, since strings only concatenate with strings.
+     */
+    private static boolean isFloating(Expr expr) {
+        if (expr instanceof Literal)
+            return ((Literal) expr).getValue() instanceof Double;
+        if (expr instanceof Grouping)
+            return isFloating(((Grouping) expr).getExpression());
+        if (expr instanceof Unary)
+            return ((Unary) expr).getOperator().getType() == TokenType.Minus
+                    && isFloating(((Unary) expr).getRight());
+        if (expr instanceof Binary)
+            return ((Binary) expr).isArithmetic();
+        return false;
+    }
+
     @Override
     public Object visitCallExpr(Call expr) {
         expr.getCallee().accept(this);
@@ -237,40 +375,54 @@ public class Resolver implements ExprVisitor, StmtVisitor {
 
     @Override
     public Object visitVariableExpr(Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.getName().getLiteral()) == Boolean.FALSE)
+        if (!scopes.isEmpty() && scopes.peek().defined.get(expr.getName().getLiteral()) == Boolean.FALSE)
             throw new RuntimeError("Cannot read local variable in its own initializer.", expr.getName());
         resolveLocal(expr, expr.getName());
         return null;
     }
 
     private void defineVariable(Token name) {
+        defineVariable((String) name.getLiteral());
+    }
+
+    private void defineVariable(String name) {
         if (scopes.isEmpty())
             return;
-        scopes.peek().put((String) name.getLiteral(), true);
+        scopes.peek().defined.put(name, true);
     }
 
-    private void declareVariable(Token name) {
+    /**
+     * Declares {@code name} in the innermost scope and returns its slot, or -1
+     * when the declaration is global.
+     */
+    private int declareVariable(Token name) {
         if (scopes.isEmpty())
-            return;
+            return -1;
 
-        if (scopes.peek().containsKey(name.getLiteral()))
+        Scope scope = scopes.peek();
+        if (scope.hoisted.remove(name.getLiteral())) {
+            scope.defined.put((String) name.getLiteral(), false);
+            return scope.slots.get(name.getLiteral());
+        }
+        if (scope.slots.containsKey(name.getLiteral()))
             throw new RuntimeError("Variable with this name already declared in this scope.", name);
-        scopes.peek().put((String) name.getLiteral(), false);
+        return scopes.peek().declare((String) name.getLiteral());
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new Scope());
     }
 
     private void endScope() {
         scopes.pop();
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    private void resolveLocal(Expr.Resolvable expr, Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.getLiteral())) {
-                int depth = scopes.size() - 1 - i;
-                locals.put(expr, depth);
+            Integer slot = scopes.get(i).slots.get(name.getLiteral());
+            if (slot != null) {
+                expr.setDepth(scopes.size() - 1 - i);
+                expr.setSlot(slot);
                 return;
             }
         }
@@ -318,4 +470,12 @@ public class Resolver implements ExprVisitor, StmtVisitor {
         expr.getIndex().accept(this);
         return null;
     }
+
+    @Override
+    public Object visitCompoundSetIndexExpr(CompoundSetIndex expr) {
+        expr.getObject().accept(this);
+        expr.getIndex().accept(this);
+        expr.getValue().accept(this);
+        return null;
+    }
 }
@@ -0,0 +1,201 @@
+package com.example.interpreter;
+
+import com.example.environment.RuntimeError;
+import com.example.token.Token;
+
+/**
+ * Operations on script numbers, shared by the interpreter, the JIT and
+ * the optimizer so they all agree on the result.
+ *
+ * Numbers are either 64 bit integers, held as {@link Long}, or doubles.
+ * Integer operations stay integers as long as the result fits and are done
+ * on doubles once they overflow; as soon as one operand is a double the
+ * other one is converted. Division and exponentiation always give a double.
+ * Bit operations only take integers.
+ */
+public final class Arithmetic {
+    private Arithmetic() {
+    }
+
+    public static boolean isNumber(Object value) {
+        return value instanceof Long || value instanceof Double;
+    }
+
+    public static double toDouble(Object value, Token op) {
+        if (value instanceof Double)
+            return (double) value;
+        if (value instanceof Long)
+            return (long) value;
+        throw new RuntimeError("Operands must be numbers", op);
+    }
+
+    private static long toLong(Object value, Token op) {
+        if (value instanceof Long)
+            return (long) value;
+        throw new RuntimeError("Operands must be integers", op);
+    }
+
+    public static Object add(long left, long right) {
+        long result = left + right;
+        if (((left ^ result) & (right ^ result)) < 0)
+            return (double) left + (double) right;
+        return result;
+    }
+
+    public static Object subtract(long left, long right) {
+        long result = left - right;
+        if (((left ^ right) & (left ^ result)) < 0)
+            return (double) left - (double) right;
+        return result;
+    }
+
+    public static Object multiply(long left, long right) {
+        try {
+            return Math.multiplyExact(left, right);
+        } catch (ArithmeticException e) {
+            return (double) left * (double) right;
+        }
+    }
+
+    public static Object modulo(long left, long right) {
+        if (right == 0)
+            return left % 0.0;
+        return left % right;
+    }
+
+    public static Object add(Object left, Object right, Token op) {
+        if (left instanceof Long && right instanceof Long)
+            return add((long) left, (long) right);
+        if (LazyString.isString(left) && LazyString.isString(right))
+            return LazyString.concat(left, right);
+        if (isNumber(left) && isNumber(right))
+            return toDouble(left, op) + toDouble(right, op);
+        throw new RuntimeError("Operands must be two numbers or two strings", op);
+    }
+
+    public static Object subtract(Object left, Object right, Token op) {
+        if (left instanceof Long && right instanceof Long)
+            return subtract((long) left, (long) right);
+        return toDouble(left, op) - toDouble(right, op);
+    }
+
+    public static Object multiply(Object left, Object right, Token op) {
+        if (left instanceof Long && right instanceof Long)
+            return multiply((long) left, (long) right);
+        return toDouble(left, op) * toDouble(right, op);
+    }
+
+    public static Object divide(Object left, Object right, Token op) {
+        return toDouble(left, op) / toDouble(right, op);
+    }
+
+    public static Object modulo(Object left, Object right, Token op) {
+        if (left instanceof Long && right instanceof Long)
+            return modulo((long) left, (long) right);
+        return toDouble(left, op) % toDouble(right, op);
+    }
+
+    public static Object power(Object left, Object right, Token op) {
+        return Math.pow(toDouble(left, op), toDouble(right, op));
+    }
+
+    public static Object negate(Object value, Token op) {
+        if (value instanceof Long) {
+            long number = (long) value;
+            if (number == Long.MIN_VALUE)
+                return -(double) number;
+            return -number;
+        }
+        return -toDouble(value, op);
+    }
+
+    public static Object bitwiseAnd(Object left, Object right, Token op) {
+        return toLong(left, op) & toLong(right, op);
+    }
+
+    public static Object bitwiseOr(Object left, Object right, Token op) {
+        return toLong(left, op) | toLong(right, op);
+    }
+
+    public static Object leftShift(Object left, Object right, Token op) {
+        return toLong(left, op) << toLong(right, op);
+    }
+
+    public static Object rightShift(Object left, Object right, Token op) {
+        return toLong(left, op) >> toLong(right, op);
+    }
+
+    public static boolean greaterThan(Object left, Object right, Token op) {
+        if (left instanceof Long && right instanceof Long)
+            return (long) left > (long) right;
+        if (LazyString.isString(left) && LazyString.isString(right))
+            return left.toString().compareTo(right.toString()) > 0;
+        return comparable(left, right, op) && toDouble(left, op) > toDouble(right, op);
+    }
+
+    public static boolean greaterEqual(Object left, Object right, Token op) {
+        if (left instanceof Long && right instanceof Long)
+            return (long) left >= (long) right;
+        if (LazyString.isString(left) && LazyString.isString(right))
+            return left.toString().compareTo(right.toString()) >= 0;
+        return comparable(left, right, op) && toDouble(left, op) >= toDouble(right, op);
+    }
+
+    public static boolean lessThan(Object left, Object right, Token op) {
+        if (left instanceof Long && right instanceof Long)
+            return (long) left < (long) right;
+        if (LazyString.isString(left) && LazyString.isString(right))
+            return left.toString().compareTo(right.toString()) < 0;
+        return comparable(left, right, op) && toDouble(left, op) < toDouble(right, op);
+    }
+
+    public static boolean lessEqual(Object left, Object right, Token op) {
+        if (left instanceof Long && right instanceof Long)
+            return (long) left <= (long) right;
+        if (LazyString.isString(left) && LazyString.isString(right))
+            return left.toString().compareTo(right.toString()) <= 0;
+        return comparable(left, right, op) && toDouble(left, op) <= toDouble(right, op);
+    }
+
+    private static boolean comparable(Object left, Object right, Token op) {
+        if (isNumber(left) && isNumber(right))
+            return true;
+        throw new RuntimeError("Operands must be two numbers or two strings", op);
+    }
+
+    /**
+     * Whether two numbers of different types have the same value, which
+     * makes {@code 1 == 1.0} hold.
+     */
+    public static boolean mixedEqual(Object left, Object right) {
+        if (left instanceof Long && right instanceof Double)
+            return (long) left == (double) right;
+        if (left instanceof Double && right instanceof Long)
+            return (double) left == (long) right;
+        return false;
+    }
+
+    /**
+     * Converts an index into a list of the given size, which is an integer
+     * or, for compatibility, a double that gets truncated. An index outside
+     * the list is an error, checked before any conversion so that a large
+     * integer is not wrapped around and a negative double is not truncated
+     * to 0.
+     */
+    public static int index(Object index, int size, Token op) {
+        if (index instanceof Long) {
+            long value = (Long) index;
+            if (value < 0 || value >= size)
+                throw new RuntimeError("Index out of bounds", op);
+            return (int) value;
+        }
+        if (index instanceof Double) {
+            double value = (Double) index;
+            // written so that NaN is out of bounds too
+            if (!(value >= 0 && value < size))
+                throw new RuntimeError("Index out of bounds", op);
+            return (int) value;
+        }
+        throw new RuntimeError("Index must be a number", op);
+    }
+}
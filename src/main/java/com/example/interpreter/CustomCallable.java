@@ -1,9 +1,14 @@
 package com.example.interpreter;
 
-import java.util.List;
-
+/**
+ * Something a script can call. The caller checks the number of arguments
+ * against {@link #arity()}, which is -1 for variadic natives, and passes
+ * them in an array that the callee owns from then on: a script function
+ * uses it as the slots of its frame, so the array may be longer than the
+ * number of arguments.
+ */
 public interface CustomCallable {
     int arity();
 
-    Object call(Interpreter interpreter, List<Object> arguments);
+    Object call(Interpreter interpreter, Object[] arguments);
 }
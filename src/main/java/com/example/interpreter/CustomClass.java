@@ -1,43 +1,75 @@
 package com.example.interpreter;
 
-import java.util.List;
 import java.util.Map;
 
-import lombok.AllArgsConstructor;
+import com.example.token.Symbol;
+import com.example.token.SymbolTable;
+
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
 @Getter
 @Setter
-@AllArgsConstructor
 public class CustomClass implements CustomCallable {
     private final String name;
     private final CustomClass superclass;
-    private final Map<String, CustomFunction> methods;
+    private final Map<Symbol, CustomFunction> methods;
+    /**
+     * The constructor declared by the class itself, looked up once since
+     * constructors are not inherited.
+     */
+    @Getter(AccessLevel.PACKAGE)
+    private final CustomFunction initializer;
+    @Getter(AccessLevel.PACKAGE)
+    private final Shape shape = new Shape(this);
+    @Getter(AccessLevel.PACKAGE)
+    @Setter(AccessLevel.NONE)
+    private int expectedFields;
+
+    public static final Symbol constructor = SymbolTable.intern("constructor");
 
-    public static final String constructor = "constructor";
+    public CustomClass(String name, CustomClass superclass, Map<Symbol, CustomFunction> methods) {
+        this.name = name;
+        this.superclass = superclass;
+        this.methods = methods;
+        this.initializer = methods.get(constructor);
+    }
 
-    public CustomFunction findMethod(CustomInstance instance, String name) {
-        if (methods.containsKey(name))
-            return methods.get(name).bind(instance);
+    public CustomFunction findMethod(Symbol name) {
+        CustomFunction method = methods.get(name);
+        if (method != null)
+            return method;
         if (superclass != null)
-            return superclass.findMethod(instance, name);
+            return superclass.findMethod(name);
         return null;
     }
 
+    /**
+     * Instances start with room for as many fields as earlier instances of
+     * the class ended up with, so a constructor rarely has to grow them.
+     */
+    void expectFields(int count) {
+        if (count > expectedFields)
+            expectedFields = count;
+    }
+
     @Override
     public int arity() {
-        CustomFunction initializer = methods.get(constructor);
         return (initializer == null) ? 0 : initializer.arity();
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
         CustomInstance instance = new CustomInstance(this);
-        CustomFunction initializer = methods.get(constructor);
         if (initializer != null)
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.callMethod(interpreter, instance, arguments);
         return instance;
     }
 
+    @Override
+    public String toString() {
+        return name;
+    }
+
 }
@@ -1,56 +1,109 @@
 package com.example.interpreter;
 
-import java.util.List;
+import java.util.Arrays;
 
 import com.example.ast.Stmt;
 import com.example.environment.Environment;
+import com.example.jit.CompiledFunction;
+import com.example.jit.Jit;
 
 public class CustomFunction implements CustomCallable {
     Environment closure;
     Boolean isConstructor = false;
     Stmt.Function declaration;
+    private final int arity;
 
     CustomFunction(Stmt.Function declaration, Environment closure, Boolean isConstructor) {
         this.closure = closure;
         this.isConstructor = isConstructor;
         this.declaration = declaration;
+        this.arity = declaration.getParams().size();
     }
 
     CustomFunction bind(CustomInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new CustomFunction(declaration, environment, isConstructor);
+        return new CustomFunction(declaration, receiver(instance), isConstructor);
+    }
+
+    /**
+     * The environment a method runs in when called on the instance.
+     */
+    Environment receiver(CustomInstance instance) {
+        Environment environment = new Environment(closure, 1);
+        environment.define(0, instance);
+        return environment;
+    }
+
+    public Stmt.Function getDeclaration() {
+        return declaration;
+    }
+
+    public Environment getClosure() {
+        return closure;
     }
 
     @Override
     public int arity() {
-        return declaration.getParams().size();
+        return arity;
+    }
+
+    /**
+     * The length of an argument array the function can adopt as its frame
+     * without copying it.
+     */
+    int frameSize() {
+        return declaration.getFrameSize();
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.getParams().size(); i++) {
-            environment.declare(
-                    declaration.getParams().get(i),
-                    arguments.get(i));
-        }
-        try {
-            interpreter.executeBlock(
-                    declaration.getBody().getStmts(),
-                    environment);
-        } catch (CustomError.Return returnValue) {
-            return returnValue.getValue();
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return invoke(interpreter, arguments, closure);
+    }
+
+    /**
+     * Calls an unbound method on an instance without creating the bound
+     * function first.
+     */
+    Object callMethod(Interpreter interpreter, CustomInstance instance, Object[] arguments) {
+        return invoke(interpreter, arguments, receiver(instance));
+    }
+
+    /**
+     * Runs the function, then keeps running the script function it called
+     * from tail position, if any, in its place. That way tail calls take no
+     * stack, whichever function they go to.
+     */
+    private Object invoke(Interpreter interpreter, Object[] arguments, Environment closure) {
+        CustomFunction function = this;
+        while (true) {
+            Object value = function.execute(interpreter, arguments, closure);
+            if (interpreter.tailFunction == null)
+                return value;
+            function = interpreter.tailFunction;
+            closure = interpreter.tailClosure;
+            arguments = interpreter.tailArguments;
+            interpreter.tailFunction = null;
+            interpreter.tailClosure = null;
+            interpreter.tailArguments = null;
         }
-        if (isConstructor) {
-            return closure.getAt(0, "this");
+    }
+
+    private Object execute(Interpreter interpreter, Object[] arguments, Environment closure) {
+        CompiledFunction compiled = Jit.compiled(declaration, isConstructor);
+        if (compiled != null) {
+            return compiled.invoke(interpreter, closure, arguments);
         }
-        return null;
+        if (arguments.length < declaration.getFrameSize())
+            arguments = Arrays.copyOf(arguments, declaration.getFrameSize());
+        Environment environment = new Environment(closure, arguments);
+        return interpreter.executeBody(
+                declaration.getBody().getStmts(),
+                environment,
+                isConstructor ? closure.getAt(0, 0) : null);
     }
 
     @Override
     public String toString() {
-        return String.format("<fn:\"%s\">", declaration.getName());
+        return String.format("<fn:\"%s\">", declaration.getName().getLiteral());
     }
 
 }
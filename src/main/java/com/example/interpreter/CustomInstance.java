@@ -1,37 +1,83 @@
 package com.example.interpreter;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+import com.example.ast.InlineCache;
 import com.example.environment.RuntimeError;
 import com.example.token.Token;
 
+/**
+ * An instance keeps its field values in an array laid out by its
+ * {@link Shape}. Property sites cache what a name resolves to for a shape:
+ * the index of a field, or the unbound method when there is no such field.
+ */
 public class CustomInstance {
-    private CustomClass customClass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private static final Object[] EMPTY = {};
+
+    private Shape shape;
+    private Object[] values;
 
     CustomInstance(CustomClass customClass) {
-        this.customClass = customClass;
+        this.shape = customClass.getShape();
+        int expected = customClass.getExpectedFields();
+        this.values = (expected == 0) ? EMPTY : new Object[expected];
+    }
+
+    CustomClass getCustomClass() {
+        return shape.getOwner();
     }
 
-    Object get(Token name) {
-        if (fields.containsKey(name.getLiteral())) {
-            return fields.get(name.getLiteral());
+    public Object lookup(Token name, InlineCache cache) {
+        Object property = cache.lookup(shape);
+        if (property == null) {
+            int index = shape.indexOf(name.getSymbol());
+            if (index != -1)
+                property = index;
+            else
+                property = getCustomClass().findMethod(name.getSymbol());
+            if (property == null) {
+                throw new RuntimeError(
+                        String.format("Undefined property '%s'", name.getLiteral()),
+                        name);
+            }
+            cache.add(shape, property);
         }
-        CustomFunction method = customClass.findMethod(this, (String) name.getLiteral());
-        if (method != null)
-            return method.bind(this);
-        throw new RuntimeError(
-                String.format("Undefined property '%s'", name.getLiteral()),
-                name);
+        return property;
+    }
+
+    public Object get(Token name, InlineCache cache) {
+        Object property = lookup(name, cache);
+        if (property instanceof Integer)
+            return values[(Integer) property];
+        return ((CustomFunction) property).bind(this);
     }
 
-    void set(Token name, Object value) {
-        fields.put((String) name.getLiteral(), value);
+    public Object getField(int index) {
+        return values[index];
+    }
+
+    public void set(Token name, Object value, InlineCache cache) {
+        Object target = cache.lookup(shape);
+        if (target == null) {
+            int index = shape.indexOf(name.getSymbol());
+            target = (index != -1) ? (Object) index : shape.withField(name.getSymbol());
+            cache.add(shape, target);
+        }
+        if (target instanceof Integer) {
+            values[(Integer) target] = value;
+            return;
+        }
+        Shape next = (Shape) target;
+        if (values.length < next.size()) {
+            values = Arrays.copyOf(values, next.size());
+            next.getOwner().expectFields(next.size());
+        }
+        values[next.size() - 1] = value;
+        shape = next;
     }
 
     @Override
     public String toString() {
-        return String.format("<instance:\"%s>", customClass);
+        return String.format("<instance:\"%s>", getCustomClass());
     }
 }
@@ -1,9 +1,11 @@
 package com.example.interpreter;
 
 import com.example.ast.StmtVisitor;
+import com.example.token.Symbol;
 import com.example.token.Token;
 
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,6 +13,7 @@ import java.util.Map;
 import com.example.ast.Expr;
 import com.example.ast.Expr.Array;
 import com.example.ast.Expr.Call;
+import com.example.ast.Expr.CompoundSetIndex;
 import com.example.ast.Expr.Get;
 import com.example.ast.Expr.GetIndex;
 import com.example.ast.Expr.Set;
@@ -27,6 +30,8 @@ import com.example.ast.Stmt.Function;
 import com.example.environment.Environment;
 import com.example.environment.Resolver;
 import com.example.environment.RuntimeError;
+import com.example.jit.CompiledLoop;
+import com.example.jit.Jit;
 
 public class Interpreter implements ExprVisitor, StmtVisitor {
 
@@ -35,10 +40,41 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
     private Environment environment = globals;
     private final Resolver resolver = new Resolver();
 
+    /**
+     * How the statement that ran last completed. Anything but NORMAL skips
+     * the rest of the enclosing blocks until the loop or function it belongs
+     * to consumes it, so return, break and continue need no exceptions.
+     */
+    private enum Completion {
+        NORMAL, BREAK, CONTINUE, RETURN
+    }
+
+    private Completion completion = Completion.NORMAL;
+    private Object returnValue;
+
+    // a call made from tail position, left for the function that made it
+    // to run in place of its own frame once it has returned
+    CustomFunction tailFunction;
+    Environment tailClosure;
+    Object[] tailArguments;
+
+    // the directory of the file whose top level is running, which the paths
+    // of its imports are relative to
+    private Path directory = Paths.get("").toAbsolutePath();
+    private final Map<Path, Module> modules = new HashMap<>();
+
     public Environment getEnvironment() {
         return environment;
     }
 
+    public Environment getGlobals() {
+        return globals;
+    }
+
+    public void setDirectory(Path directory) {
+        this.directory = directory.toAbsolutePath();
+    }
+
     public Interpreter() {
         globals.define("clock", new builtIn.Clock());
         globals.define("print", new builtIn.Print());
@@ -50,27 +86,69 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
     }
 
     public void interpret(Program p) {
-        resolver.resolve(p.getStmts());
+        if (!p.isResolved())
+            resolver.resolve(p.getStmts());
         for (Stmt stmt : p.getStmts())
             stmt.accept(this);
     }
 
     @Override
     public void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.getStmts(), new Environment(environment));
+        executeBlock(stmt.getStmts(), new Environment(environment, stmt.getFrameSize()));
     }
 
     public void executeBlock(List<Stmt> stmts, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
-            for (Stmt stmt : stmts)
+            for (Stmt stmt : stmts) {
                 stmt.accept(this);
+                if (completion != Completion.NORMAL)
+                    break;
+            }
         } finally {
             this.environment = previous;
         }
     }
 
+    /**
+     * Runs the body of a function and returns the value of the return
+     * statement that ended it, or the fallback when it ran off the end.
+     */
+    public Object executeBody(List<Stmt> stmts, Environment environment, Object fallback) {
+        executeBlock(stmts, environment);
+        if (completion != Completion.RETURN)
+            return fallback;
+        completion = Completion.NORMAL;
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
+    /**
+     * Consumes the break or continue that ended an iteration and tells
+     * whether the loop stops, which it also does for a pending return.
+     */
+    private boolean exitsLoop() {
+        switch (completion) {
+            case CONTINUE:
+                completion = Completion.NORMAL;
+                return false;
+            case BREAK:
+                completion = Completion.NORMAL;
+                return true;
+            default:
+                return completion == Completion.RETURN;
+        }
+    }
+
+    private void completeLoop(Object value) {
+        if (value != CompiledLoop.COMPLETED) {
+            returnValue = value;
+            completion = Completion.RETURN;
+        }
+    }
+
     @Override
     public void visitIfStmt(Stmt.If stmt) {
         if (bool(stmt.getCondition().accept(this))) {
@@ -83,22 +161,81 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
     @Override
     public void visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
-        if (stmt.getValue() != null)
+        if (stmt.getValue() instanceof Call && ((Call) stmt.getValue()).isTailCall())
+            value = tailCall((Call) stmt.getValue());
+        else if (stmt.getValue() != null)
             value = stmt.getValue().accept(this);
-        throw new CustomError.Return(value);
+        returnValue = value;
+        completion = Completion.RETURN;
     }
 
     @Override
     public void visitWhileStmt(Stmt.While stmt) {
-        while (bool(stmt.getCondition().accept(this))) {
-            try {
+        CompiledLoop compiled = Jit.compiled(stmt);
+        if (compiled == null) {
+            while (bool(stmt.getCondition().accept(this))) {
                 stmt.getBody().accept(this);
-            } catch (CustomError.Break b) {
-                break;
-            } catch (CustomError.Continue c) {
-                continue;
+                if (completion != Completion.NORMAL && exitsLoop())
+                    return;
+                compiled = Jit.backEdge(stmt);
+                if (compiled != null)
+                    break;
             }
+            if (compiled == null)
+                return;
         }
+        // the loop state lives in the environment, so the compiled loop
+        // picks up from the condition of the next iteration
+        completeLoop(compiled.run(this, environment));
+    }
+
+    @Override
+    public void visitForStmt(Stmt.For stmt) {
+        Environment previous = environment;
+        try {
+            environment = new Environment(previous, stmt.getFrameSize());
+            if (stmt.getInitializer() != null)
+                stmt.getInitializer().accept(this);
+            CompiledLoop compiled = Jit.compiled(stmt);
+            if (compiled == null) {
+                compiled = runFor(stmt);
+                if (compiled == null)
+                    return;
+            }
+            completeLoop(compiled.run(this, environment));
+        } finally {
+            environment = previous;
+        }
+    }
+
+    /**
+     * Interprets the loop until it ends, returning null, or until it gets
+     * compiled, returning the compiled loop to continue with.
+     */
+    private CompiledLoop runFor(Stmt.For stmt) {
+        Expr condition = stmt.getCondition();
+        Expr increment = stmt.getIncrement();
+        Stmt body = stmt.getBody();
+        // when nothing can capture the frame of an iteration every iteration
+        // can use the same one, a variable of the body is always defined
+        // again before it can be read
+        Environment frame = null;
+        if (stmt.isReuseBodyFrame() && body instanceof Stmt.Block)
+            frame = new Environment(environment, ((Stmt.Block) body).getFrameSize());
+        while (condition == null || bool(condition.accept(this))) {
+            if (frame != null)
+                executeBlock(((Stmt.Block) body).getStmts(), frame);
+            else
+                body.accept(this);
+            if (completion != Completion.NORMAL && exitsLoop())
+                return null;
+            if (increment != null)
+                increment.accept(this);
+            CompiledLoop compiled = Jit.backEdge(stmt);
+            if (compiled != null)
+                return compiled;
+        }
+        return null;
     }
 
     @Override
@@ -107,7 +244,38 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
         if (stmt.getInitializer() != null) {
             value = stmt.getInitializer().accept(this);
         }
-        environment.declare(stmt.getName(), value);
+        if (stmt.getSlot() == -1)
+            environment.declare(stmt.getName(), value);
+        else
+            environment.define(stmt.getSlot(), value);
+    }
+
+    @Override
+    public void visitImportStmt(Stmt.Import stmt) {
+        Path path = directory.resolve((String) stmt.getPath().getLiteral()).normalize();
+        Module module = modules.get(path);
+        if (module == null) {
+            module = new Module(ModuleLoader.load(path, stmt.getKeyword()));
+            modules.put(path, module);
+        }
+        if (stmt.getSlot() == -1)
+            environment.declare(stmt.getName(), module);
+        else
+            environment.define(stmt.getSlot(), module);
+    }
+
+    /**
+     * Runs the top level of a module in its frame, with its imports relative
+     * to the directory it is in.
+     */
+    void executeModule(List<Stmt> stmts, Environment frame, Path directory) {
+        Path previous = this.directory;
+        try {
+            this.directory = directory;
+            executeBlock(stmts, frame);
+        } finally {
+            this.directory = previous;
+        }
     }
 
     @Override
@@ -127,12 +295,11 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = expr.getRight().accept(this);
         switch (expr.getOperator().getType()) {
             case Minus:
-                return -(double) right;
+                return Arithmetic.negate(expr.getRight().accept(this), expr.getOperator());
             case Not:
-                return !bool(right);
+                return !bool(expr.getRight().accept(this));
         }
         return null;
     }
@@ -145,24 +312,25 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = expr.getValue().accept(this);
-        int depth = resolver.getDepth(expr);
-        if (depth != -1) {
-            environment.assignAt(depth, expr.getName(), value);
+        if (expr.getDepth() != -1) {
+            environment.assignAt(expr.getDepth(), expr.getSlot(), value);
         } else {
             globals.assign(expr.getName(), value);
         }
         return value;
     }
 
-    boolean bool(Object o) {
+    public static boolean bool(Object o) {
         if (o == null)
             return false;
         else if (o instanceof Boolean)
             return (boolean) o;
+        else if (o instanceof Long)
+            return (long) o != 0;
         else if (o instanceof Double)
             return (double) o != 0;
-        else if (o instanceof String)
-            return !((String) o).isEmpty();
+        else if (o instanceof CharSequence)
+            return ((CharSequence) o).length() != 0;
         else if (o instanceof List)
             return !((List) o).isEmpty();
         else if (o instanceof Map)
@@ -171,38 +339,73 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
             return true;
     }
 
-    private boolean isEqual(Object left, Object right) {
+    public static boolean isEqual(Object left, Object right) {
+        left = LazyString.flatten(left);
+        right = LazyString.flatten(right);
         if (left == null && right == null)
             return true;
         if (left == null)
             return false;
-        return left.equals(right);
+        return left.equals(right) || Arithmetic.mixedEqual(left, right);
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (expr.isArithmetic())
+            return arithmetic(expr);
         Object left = expr.getLeft().accept(this);
         Object right = expr.getRight().accept(this);
         Token op = expr.getOperator();
-        switch (op.getType()) {
-            case Minus:
-                return (double) left - (double) right;
-            case Divide:
-                return (double) left / (double) right;
-            case Plus:
+        switch (expr.getSpecialization()) {
+            case INTEGER:
+                if (left instanceof Long && right instanceof Long)
+                    return integer(op, (long) left, (long) right);
+                expr.setSpecialization(Expr.Binary.Specialization.GENERIC);
+                break;
+            case NUMBER:
                 if (left instanceof Double && right instanceof Double)
-                    return (double) left + (double) right;
+                    return numeric(op, (double) left, (double) right);
+                expr.setSpecialization(Expr.Binary.Specialization.GENERIC);
+                break;
+            case STRING:
                 if (left instanceof String && right instanceof String)
-                    return (String) left + (String) right;
-                throw new RuntimeError("Operands must be two numbers or two strings", op);
+                    return string(op, (String) left, (String) right);
+                expr.setSpecialization(Expr.Binary.Specialization.GENERIC);
+                break;
+            case UNINITIALIZED:
+                specialize(expr, left, right);
+                break;
+            default:
+                break;
+        }
+        return binary(op, left, right);
+    }
+
+    /**
+     * Applies a binary operator to operands of any type.
+     */
+    public static Object binary(Token op, Object left, Object right) {
+        switch (op.getType()) {
+            case Plus:
+                return Arithmetic.add(left, right, op);
+            case Minus:
+                return Arithmetic.subtract(left, right, op);
             case Multiply:
-                return (double) left * (double) right;
+                return Arithmetic.multiply(left, right, op);
+            case Divide:
+                return Arithmetic.divide(left, right, op);
+            case Modulo:
+                return Arithmetic.modulo(left, right, op);
             case Exponent:
-                return Math.pow((double) left, (double) right);
+                return Arithmetic.power(left, right, op);
             case BitwiseAnd:
-                return (int) (double) left & (int) (double) right;
+                return Arithmetic.bitwiseAnd(left, right, op);
             case BitwiseOr:
-                return (int) (double) left | (int) (double) right;
+                return Arithmetic.bitwiseOr(left, right, op);
+            case LeftShift:
+                return Arithmetic.leftShift(left, right, op);
+            case RightShift:
+                return Arithmetic.rightShift(left, right, op);
             case And:
                 return bool(left) && bool(right);
             case Or:
@@ -212,41 +415,168 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
             case NotEqual:
                 return !isEqual(left, right);
             case GreaterThan:
-                if (left instanceof Double && right instanceof Double)
-                    return (double) left > (double) right;
-                if (left instanceof String && right instanceof String)
-                    return ((String) left).compareTo((String) right) > 0;
-                throw new RuntimeError("Operands must be two numbers or two strings", op);
+                return Arithmetic.greaterThan(left, right, op);
+            case GreaterThanOrEqual:
+                return Arithmetic.greaterEqual(left, right, op);
+            case LessThan:
+                return Arithmetic.lessThan(left, right, op);
+            case LessThanOrEqual:
+                return Arithmetic.lessEqual(left, right, op);
+        }
+
+        throw new RuntimeError("Unknown operator", op);
+    }
+
+    /**
+     * Rewrites the node for the operand types seen on its first evaluation.
+     * Once operands of another type show up the node falls back to the
+     * generic case for good, so a polymorphic node does not keep flipping.
+     */
+    private static void specialize(Expr.Binary expr, Object left, Object right) {
+        Expr.Binary.Specialization specialization = Expr.Binary.Specialization.GENERIC;
+        switch (expr.getOperator().getType()) {
+            case Plus:
+            case Equal:
+            case NotEqual:
+            case GreaterThan:
             case GreaterThanOrEqual:
-                if (left instanceof Double && right instanceof Double)
-                    return (double) left >= (double) right;
-                if (left instanceof String && right instanceof String)
-                    return ((String) left).compareTo((String) right) >= 0;
-                throw new RuntimeError("Operands must be two numbers or two strings", op);
             case LessThan:
-                if (left instanceof Double && right instanceof Double)
-                    return (double) left < (double) right;
-                if (left instanceof String && right instanceof String)
-                    return ((String) left).compareTo((String) right) < 0;
-                throw new RuntimeError("Operands must be two numbers or two strings", op);
             case LessThanOrEqual:
-                if (left instanceof Double && right instanceof Double)
-                    return (double) left <= (double) right;
                 if (left instanceof String && right instanceof String)
-                    return ((String) left).compareTo((String) right) <= 0;
-                return (double) left <= (double) right;
+                    specialization = Expr.Binary.Specialization.STRING;
+                else
+                    specialization = numeric(left, right);
+                break;
+            case Minus:
+            case Multiply:
+            case Modulo:
+                specialization = numeric(left, right);
+                break;
+            default:
+                break;
+        }
+        expr.setSpecialization(specialization);
+    }
+
+    private static Expr.Binary.Specialization numeric(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long)
+            return Expr.Binary.Specialization.INTEGER;
+        if (left instanceof Double && right instanceof Double)
+            return Expr.Binary.Specialization.NUMBER;
+        return Expr.Binary.Specialization.GENERIC;
+    }
+
+    private static Object integer(Token op, long left, long right) {
+        switch (op.getType()) {
+            case Plus:
+                return Arithmetic.add(left, right);
+            case Minus:
+                return Arithmetic.subtract(left, right);
+            case Multiply:
+                return Arithmetic.multiply(left, right);
             case Modulo:
-                return (double) left % (double) right;
+                return Arithmetic.modulo(left, right);
+            case Equal:
+                return left == right;
+            case NotEqual:
+                return left != right;
+            case GreaterThan:
+                return left > right;
+            case GreaterThanOrEqual:
+                return left >= right;
+            case LessThan:
+                return left < right;
+            case LessThanOrEqual:
+                return left <= right;
         }
+        throw new RuntimeError("Unknown operator", op);
+    }
 
+    private static Object numeric(Token op, double left, double right) {
+        switch (op.getType()) {
+            case Plus:
+                return left + right;
+            case Minus:
+                return left - right;
+            case Multiply:
+                return left * right;
+            case Modulo:
+                return left % right;
+            case Equal:
+                return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+            case NotEqual:
+                return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+            case GreaterThan:
+                return left > right;
+            case GreaterThanOrEqual:
+                return left >= right;
+            case LessThan:
+                return left < right;
+            case LessThanOrEqual:
+                return left <= right;
+        }
+        throw new RuntimeError("Unknown operator", op);
+    }
+
+    private static Object string(Token op, String left, String right) {
+        switch (op.getType()) {
+            case Plus:
+                return LazyString.concat(left, right);
+            case Equal:
+                return left.equals(right);
+            case NotEqual:
+                return !left.equals(right);
+            case GreaterThan:
+                return left.compareTo(right) > 0;
+            case GreaterThanOrEqual:
+                return left.compareTo(right) >= 0;
+            case LessThan:
+                return left.compareTo(right) < 0;
+            case LessThanOrEqual:
+                return left.compareTo(right) <= 0;
+        }
+        throw new RuntimeError("Unknown operator", op);
+    }
+
+    /**
+     * Computes an arithmetic node on primitive doubles. Nested arithmetic
+     * operands are evaluated the same way, so only the final result gets
+     * boxed when it is handed back to the caller.
+     */
+    private double arithmetic(Expr.Binary expr) {
+        Token op = expr.getOperator();
+        double left = number(expr.getLeft(), op);
+        double right = number(expr.getRight(), op);
+        switch (op.getType()) {
+            case Plus:
+                return left + right;
+            case Minus:
+                return left - right;
+            case Multiply:
+                return left * right;
+            case Divide:
+                return left / right;
+            case Modulo:
+                return left % right;
+            case Exponent:
+                return Math.pow(left, right);
+        }
         throw new RuntimeError("Unknown operator", op);
     }
 
+    private double number(Expr expr, Token op) {
+        if (expr instanceof Expr.Binary && ((Expr.Binary) expr).isArithmetic())
+            return arithmetic((Expr.Binary) expr);
+        if (expr instanceof Expr.Grouping)
+            return number(((Expr.Grouping) expr).getExpression(), op);
+        return Arithmetic.toDouble(expr.accept(this), op);
+    }
+
     @Override
     public void visitClassStmt(Class stmt) {
-        environment.define(
-                (String) stmt.getName().getLiteral(),
-                null);
+        int slot = stmt.getSlot();
+        if (slot == -1)
+            environment.define(stmt.getName(), null);
         Object superclass = null;
         if (stmt.getSuperclass() != null) {
             superclass = stmt.getSuperclass().accept(this);
@@ -255,18 +585,18 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
                         "Superclass must be a class",
                         stmt.getName());
             }
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment = new Environment(environment, 1);
+            environment.define(0, superclass);
         }
-        Map<String, CustomFunction> methods = new HashMap<>();
+        Map<Symbol, CustomFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.getMethods()) {
-            String className = (String) method.getName().getLiteral();
+            Symbol name = method.getName().getSymbol();
             methods.put(
-                    className,
+                    name,
                     new CustomFunction(
                             method,
                             environment,
-                            className.equals(CustomClass.constructor)));
+                            name == CustomClass.constructor));
         }
         CustomClass klass = new CustomClass(
                 (String) stmt.getName().getLiteral(),
@@ -275,41 +605,185 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
         if (superclass != null) {
             environment = environment.getEnclosing();
         }
-        environment.assign(
-                stmt.getName(),
-                klass);
+        if (slot == -1)
+            environment.assign(
+                    stmt.getName(),
+                    klass);
+        else
+            environment.define(slot, klass);
     }
 
     @Override
     public void visitFunctionStmt(Function stmt) {
         CustomFunction function = new CustomFunction(stmt, environment, false);
-        environment.define((String) stmt.getName().getLiteral(), function);
+        if (stmt.getSlot() == -1)
+            environment.define(stmt.getName(), function);
+        else
+            environment.define(stmt.getSlot(), function);
     }
 
     @Override
     public Object visitCallExpr(Call expr) {
-        Object callee = expr.getCallee().accept(this);
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.getArguments()) {
-            arguments.add(argument.accept(this));
+        if (expr.getCallee() instanceof Get) {
+            Get get = (Get) expr.getCallee();
+            Object object = get.getObject().accept(this);
+            if (object instanceof Module)
+                return call(((Module) object).get(get.getName(), this), expr);
+            CustomInstance instance = receiver(object, get);
+            Object property = instance.lookup(get.getName(), get.getCache());
+            if (property instanceof Integer)
+                return call(instance.getField((Integer) property), expr);
+            CustomFunction method = (CustomFunction) property;
+            checkArity(method, expr.getArguments().size(), expr.getParen());
+            return method.callMethod(this, instance, evaluateArguments(expr, method.frameSize()));
         }
+        return call(expr.getCallee().accept(this), expr);
+    }
+
+    private Object call(Object callee, Call expr) {
+        CustomCallable function = callable(callee, expr.getArguments().size(), expr.getParen());
+        return function.call(this, evaluateArguments(expr, frameSize(function)));
+    }
+
+    private Object tailCall(Call expr) {
+        if (expr.getCallee() instanceof Get) {
+            Get get = (Get) expr.getCallee();
+            Object object = get.getObject().accept(this);
+            if (object instanceof Module)
+                return tailCall(((Module) object).get(get.getName(), this), expr);
+            CustomInstance instance = receiver(object, get);
+            Object property = instance.lookup(get.getName(), get.getCache());
+            if (property instanceof Integer)
+                return tailCall(instance.getField((Integer) property), expr);
+            CustomFunction method = (CustomFunction) property;
+            checkArity(method, expr.getArguments().size(), expr.getParen());
+            deferCall(method, method.receiver(instance), evaluateArguments(expr, method.frameSize()));
+            return null;
+        }
+        return tailCall(expr.getCallee().accept(this), expr);
+    }
+
+    private Object tailCall(Object callee, Call expr) {
+        if (!(callee instanceof CustomFunction))
+            return call(callee, expr);
+        CustomFunction function = (CustomFunction) callee;
+        checkArity(function, expr.getArguments().size(), expr.getParen());
+        deferCall(function, function.closure, evaluateArguments(expr, function.frameSize()));
+        return null;
+    }
+
+    private static CustomInstance receiver(Object object, Get get) {
+        if (!(object instanceof CustomInstance))
+            throw new RuntimeError("Only instances have properties", get.getName());
+        return (CustomInstance) object;
+    }
+
+    /**
+     * Calls the callee with exactly the given arguments.
+     */
+    public Object call(Object callee, Object[] arguments, Token paren) {
+        return callable(callee, arguments.length, paren).call(this, arguments);
+    }
+
+    /**
+     * Calls a property looked up on an instance: either a field holding
+     * something callable or an unbound method of the instance's class. The
+     * property of a module is what the module's name holds.
+     */
+    public Object invoke(Object receiver, Object property, Object[] arguments, Token paren) {
+        if (receiver instanceof Module)
+            return call(property, arguments, paren);
+        CustomInstance instance = (CustomInstance) receiver;
+        if (property instanceof Integer)
+            return call(instance.getField((Integer) property), arguments, paren);
+        CustomFunction method = (CustomFunction) property;
+        checkArity(method, arguments.length, paren);
+        return method.callMethod(this, instance, arguments);
+    }
+
+    /**
+     * Calls the callee from tail position. A script function is not run
+     * here but left to the trampoline of the function returning its value,
+     * which then returns null; anything else is called right away.
+     */
+    public Object tailCall(Object callee, Object[] arguments, Token paren) {
+        if (!(callee instanceof CustomFunction))
+            return call(callee, arguments, paren);
+        CustomFunction function = (CustomFunction) callee;
+        checkArity(function, arguments.length, paren);
+        deferCall(function, function.closure, arguments);
+        return null;
+    }
+
+    /**
+     * Calls a property of an instance from tail position, deferring a method
+     * call the same way as {@link #tailCall}.
+     */
+    public Object tailInvoke(Object receiver, Object property, Object[] arguments, Token paren) {
+        if (receiver instanceof Module)
+            return tailCall(property, arguments, paren);
+        CustomInstance instance = (CustomInstance) receiver;
+        if (property instanceof Integer)
+            return tailCall(instance.getField((Integer) property), arguments, paren);
+        CustomFunction method = (CustomFunction) property;
+        checkArity(method, arguments.length, paren);
+        deferCall(method, method.receiver(instance), arguments);
+        return null;
+    }
+
+    private void deferCall(CustomFunction function, Environment closure, Object[] arguments) {
+        tailFunction = function;
+        tailClosure = closure;
+        tailArguments = arguments;
+    }
+
+    /**
+     * Evaluates the arguments into an array of at least the given size, so
+     * a script function can take the array over as its frame and find its
+     * parameters already in their slots.
+     */
+    private Object[] evaluateArguments(Call expr, int size) {
+        List<Expr> expressions = expr.getArguments();
+        Object[] arguments = new Object[Math.max(expressions.size(), size)];
+        for (int i = 0; i < expressions.size(); i++) {
+            arguments[i] = expressions.get(i).accept(this);
+        }
+        return arguments;
+    }
+
+    private static int frameSize(CustomCallable function) {
+        if (function instanceof CustomFunction)
+            return ((CustomFunction) function).frameSize();
+        if (function instanceof CustomClass && ((CustomClass) function).getInitializer() != null)
+            return ((CustomClass) function).getInitializer().frameSize();
+        return 0;
+    }
+
+    private static CustomCallable callable(Object callee, int count, Token paren) {
         if (!(callee instanceof CustomCallable)) {
-            throw new RuntimeError("Can only call functions and classes", expr.getParen());
+            throw new RuntimeError("Can only call functions and classes", paren);
         }
         CustomCallable function = (CustomCallable) callee;
-        if (function.arity() == -1 || function.arity() == arguments.size()) {
-            return function.call(this, arguments);
-        }
+        checkArity(function, count, paren);
+        return function;
+    }
+
+    private static void checkArity(CustomCallable function, int count, Token paren) {
+        int arity = function.arity();
+        if (arity == -1 || arity == count)
+            return;
         throw new RuntimeError(
-                String.format("Expected %s arguments, but got %s", function.arity(), arguments.size()),
-                expr.getParen());
+                String.format("Expected %s arguments, but got %s", arity, count),
+                paren);
     }
 
     @Override
     public Object visitGetExpr(Get expr) {
         Object object = expr.getObject().accept(this);
         if (object instanceof CustomInstance) {
-            return ((CustomInstance) object).get(expr.getName());
+            return ((CustomInstance) object).get(expr.getName(), expr.getCache());
+        } else if (object instanceof Module) {
+            return ((Module) object).get(expr.getName(), this);
         }
         throw new RuntimeError("Only instances have properties", expr.getName());
     }
@@ -321,16 +795,16 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
             throw new RuntimeError("Only instances have fields", expr.getName());
         }
         Object value = expr.getValue().accept(this);
-        ((CustomInstance) object).set(expr.getName(), value);
+        ((CustomInstance) object).set(expr.getName(), value, expr.getCache());
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Super expr) {
-        int distance = resolver.getDepth(expr);
-        CustomClass superclass = (CustomClass) environment.getAt(distance, "super");
-        CustomInstance object = (CustomInstance) environment.getAt(distance - 1, "this");
-        CustomFunction method = superclass.findMethod(object, (String) expr.getMethod().getLiteral());
+        int distance = expr.getDepth();
+        CustomClass superclass = (CustomClass) environment.getAt(distance, 0);
+        CustomInstance object = (CustomInstance) environment.getAt(distance - 1, 0);
+        CustomFunction method = superclass.findMethod(expr.getMethod().getSymbol());
         if (method == null) {
             throw new RuntimeError(
                     String.format("Undefined property '%s'", expr.getMethod().getLiteral()),
@@ -344,10 +818,10 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
         return lookUpVariable(expr.getName(), expr);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        int distance = resolver.getDepth(expr);
+    private Object lookUpVariable(Token name, Expr.Resolvable expr) {
+        int distance = expr.getDepth();
         if (distance != -1) {
-            return environment.getAt(distance, (String) name.getLiteral());
+            return environment.getAt(distance, expr.getSlot());
         } else {
             return globals.get(name);
         }
@@ -355,17 +829,20 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
 
     @Override
     public void visitBreakStmt(Break expr) {
-        throw new CustomError.Break(expr.getKeyword());
+        completion = Completion.BREAK;
     }
 
     @Override
     public void visitContinueStmt(Continue expr) {
-        throw new CustomError.Continue(expr.getKeyword());
+        completion = Completion.CONTINUE;
     }
 
     @Override
     public Object visitArrayExpr(Array expr) {
-        List<Object> values = new ArrayList<>();
+        if (expr.getConstant() != null) {
+            return new ScriptList(expr.getConstant());
+        }
+        ScriptList values = new ScriptList(expr.getValues().size());
         for (Expr value : expr.getValues()) {
             values.add(value.accept(this));
         }
@@ -374,9 +851,12 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
 
     @Override
     public Object visitMapExpr(com.example.ast.Expr.Map expr) {
-        Map<Object, Object> values = new HashMap<>();
+        if (expr.getConstant() != null) {
+            return new ScriptMap(expr.getConstant());
+        }
+        ScriptMap values = new ScriptMap(expr.getValues().size());
         for (Map.Entry<Expr, Expr> entry : expr.getValues().entrySet()) {
-            values.put(entry.getKey().accept(this), entry.getValue().accept(this));
+            values.store(entry.getKey().accept(this), entry.getValue().accept(this));
         }
         return values;
     }
@@ -385,15 +865,17 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
     public Object visitGetIndexExpr(GetIndex expr) {
         Object object = expr.getObject().accept(this);
         Object index = expr.getIndex().accept(this);
-        if (object instanceof List) {
-            if (!(index instanceof Double)) {
-                throw new RuntimeError("Index must be a number", expr.getOperator());
-            }
-            return ((List) object).get(((Double) index).intValue());
-        } else if (object instanceof Map) {
-            return ((Map) object).get(index);
+        return getIndex(object, index, expr.getOperator());
+    }
+
+    public static Object getIndex(Object object, Object index, Token operator) {
+        if (object instanceof ScriptList) {
+            ScriptList list = (ScriptList) object;
+            return list.get(Arithmetic.index(index, list.size(), operator));
+        } else if (object instanceof ScriptMap) {
+            return ((ScriptMap) object).get(index);
         }
-        throw new RuntimeError("Only lists and maps have indexes", expr.getOperator());
+        throw new RuntimeError("Only lists and maps have indexes", operator);
     }
 
     @Override
@@ -401,17 +883,27 @@ public class Interpreter implements ExprVisitor, StmtVisitor {
         Object object = expr.getObject().accept(this);
         Object index = expr.getIndex().accept(this);
         Object value = expr.getValue().accept(this);
-        if (object instanceof List) {
-            if (!(index instanceof Double)) {
-                throw new RuntimeError("Index must be a number", expr.getOperator());
-            }
-            ((List) object).set(((Double) index).intValue(), value);
+        return setIndex(object, index, value, expr.getOperator());
+    }
+
+    @Override
+    public Object visitCompoundSetIndexExpr(CompoundSetIndex expr) {
+        Object object = expr.getObject().accept(this);
+        Object index = expr.getIndex().accept(this);
+        Object element = getIndex(object, index, expr.getOperator());
+        Object value = binary(expr.getOperation(), element, expr.getValue().accept(this));
+        return setIndex(object, index, value, expr.getOperator());
+    }
+
+    public static Object setIndex(Object object, Object index, Object value, Token operator) {
+        if (object instanceof ScriptList) {
+            ScriptList list = (ScriptList) object;
+            list.store(Arithmetic.index(index, list.size(), operator), value);
             return value;
-        } else if (object instanceof Map) {
-            ((Map) object).put(index, value);
+        } else if (object instanceof ScriptMap) {
+            ((ScriptMap) object).store(index, value);
             return value;
         }
-        throw new RuntimeError("Only lists and maps have indexes", expr.getOperator());
+        throw new RuntimeError("Only lists and maps have indexes", operator);
     }
-
 }
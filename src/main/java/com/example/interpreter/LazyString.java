@@ -0,0 +1,130 @@
+package com.example.interpreter;
+
+/**
+ * A string built by concatenation. The characters live in a buffer that
+ * the string shares with the strings it was built from: appending to the
+ * string that ends the buffer extends the buffer in place, so a loop that
+ * keeps appending to the same variable copies every character once instead
+ * of copying the whole string on each iteration.
+ *
+ * Scripts never see the difference. The text is flattened into a String the
+ * first time it is observed, and everything that compares strings or uses
+ * them as map keys flattens them first, including the comparison of the
+ * elements of lists and maps. A lazy string hashes like its String.
+ */
+public final class LazyString implements CharSequence {
+    /**
+     * Concatenations shorter than this produce plain strings, which are
+     * cheaper to copy than to keep a buffer around for.
+     */
+    private static final int MIN_LENGTH = 64;
+
+    private final StringBuilder buffer;
+    private final int length;
+    private String flat;
+
+    private LazyString(StringBuilder buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    public static boolean isString(Object value) {
+        return value instanceof String || value instanceof LazyString;
+    }
+
+    /**
+     * Returns the String a value stands for, or the value itself when it is
+     * not a lazy string.
+     */
+    public static Object flatten(Object value) {
+        if (value instanceof LazyString)
+            return value.toString();
+        return value;
+    }
+
+    /**
+     * Compares two values the way lists and maps compare their elements,
+     * with a lazy string equal to the String of the same text and numbers
+     * equal when their values are, like {@code ==} in a script.
+     */
+    public static boolean equal(Object left, Object right) {
+        left = flatten(left);
+        right = flatten(right);
+        return java.util.Objects.equals(left, right) || Arithmetic.mixedEqual(left, right);
+    }
+
+    /**
+     * Hashes a value consistently with {@link #equal}: a number hashes like
+     * the double of the same value, so 1 and 1.0 hash alike.
+     */
+    public static int hash(Object value) {
+        if (value instanceof Long)
+            return Double.hashCode((long) value + 0.0);
+        if (value instanceof Double)
+            return Double.hashCode((double) value + 0.0);
+        return java.util.Objects.hashCode(value);
+    }
+
+    /**
+     * Concatenates two values that are both strings or lazy strings.
+     */
+    public static Object concat(Object left, Object right) {
+        int length = ((CharSequence) left).length() + ((CharSequence) right).length();
+        if (length < MIN_LENGTH)
+            return left.toString() + right.toString();
+        if (left instanceof LazyString) {
+            LazyString string = (LazyString) left;
+            if (string.buffer.length() == string.length) {
+                append(string.buffer, right);
+                return new LazyString(string.buffer, length);
+            }
+        }
+        StringBuilder buffer = new StringBuilder(length * 2);
+        append(buffer, left);
+        append(buffer, right);
+        return new LazyString(buffer, length);
+    }
+
+    private static void append(StringBuilder buffer, Object value) {
+        if (value instanceof LazyString && ((LazyString) value).buffer != buffer) {
+            LazyString string = (LazyString) value;
+            buffer.append(string.buffer, 0, string.length);
+        } else {
+            buffer.append(value.toString());
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length)
+            throw new StringIndexOutOfBoundsException(index);
+        return buffer.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof LazyString && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null)
+            flat = buffer.substring(0, length);
+        return flat;
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.interpreter;
+
+import com.example.environment.Environment;
+import com.example.environment.RuntimeError;
+import com.example.token.Token;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A module as one interpreter sees it. Its statements run the first time
+ * one of its names is used, in a frame that then holds everything the
+ * module declared; importing it again in the same interpreter gives the
+ * same module.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+public class Module {
+    private final ModuleLoader.Compiled compiled;
+    private Environment frame;
+
+    /**
+     * Runs the module in the interpreter unless it has run already. The
+     * frame is set before the statements run, so a module imported back
+     * while it runs sees the names defined so far. If the statements fail
+     * the frame is dropped again, so the next use runs them again and
+     * raises the error again instead of seeing a half initialized module.
+     */
+    void load(Interpreter interpreter) {
+        if (frame != null)
+            return;
+        frame = new Environment(interpreter.getGlobals(), compiled.frameSize());
+        try {
+            interpreter.executeModule(compiled.getStmts(), frame, compiled.getPath().getParent());
+        } catch (RuntimeException e) {
+            frame = null;
+            throw e;
+        }
+    }
+
+    public Object get(Token name, Interpreter interpreter) {
+        load(interpreter);
+        Integer slot = compiled.getExports().get(name.getSymbol());
+        if (slot == null) {
+            throw new RuntimeError(
+                    String.format("Undefined property '%s'", name.getLiteral()),
+                    name);
+        }
+        return frame.getAt(0, slot);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<module:\"%s\">", compiled.getPath().getFileName());
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.interpreter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.example.App;
+import com.example.ast.Program;
+import com.example.ast.Stmt;
+import com.example.environment.Resolver;
+import com.example.environment.RuntimeError;
+import com.example.lexer.Lexer;
+import com.example.optimizer.Optimizer;
+import com.example.parser.Parser;
+import com.example.token.Symbol;
+import com.example.token.SymbolTable;
+import com.example.token.Token;
+
+import lombok.Getter;
+
+/**
+ * Loads the modules scripts import: reads, parses, optimizes and resolves
+ * them. Running a module is left to each {@link Module}.
+ *
+ * Each interpreter loads the modules it imports itself, once per path, and
+ * keeps them in its own {@link Module}s. A tree cannot be shared between
+ * interpreters, because running it fills inline caches, specializes
+ * operators and compiles hot functions without any synchronization.
+ */
+public final class ModuleLoader {
+    private ModuleLoader() {
+    }
+
+    /**
+     * A module ready to run: its statements and the slot each top-level
+     * name has in the frame they run in.
+     */
+    @Getter
+    public static final class Compiled {
+        private final Path path;
+        private final List<Stmt> stmts;
+        private final Map<Symbol, Integer> exports;
+
+        private Compiled(Path path, List<Stmt> stmts, Map<String, Integer> slots) {
+            this.path = path;
+            this.stmts = stmts;
+            this.exports = new HashMap<>();
+            for (Map.Entry<String, Integer> slot : slots.entrySet())
+                exports.put(SymbolTable.intern(slot.getKey()), slot.getValue());
+        }
+
+        public int frameSize() {
+            return exports.size();
+        }
+    }
+
+    /**
+     * Compiles the module at the absolute path into a tree of its own.
+     */
+    public static Compiled load(Path path, Token keyword) {
+        Program program;
+        // syntax errors are reported against the module
+        String fileName = App.getfileName();
+        App.setFileName(path.toString());
+        try (Reader reader = Files.newBufferedReader(path)) {
+            program = new Parser(new Lexer(reader)).getProgram();
+        } catch (IOException e) {
+            throw new RuntimeError(String.format("Cannot read module '%s'", path), keyword);
+        } finally {
+            App.setFileName(fileName);
+        }
+        if (App.hasError())
+            throw new RuntimeError(String.format("Module '%s' has syntax errors", path), keyword);
+        List<Stmt> stmts = new Optimizer().optimize(program).getStmts();
+        return new Compiled(path, stmts, new Resolver().resolveModule(stmts));
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.interpreter;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The list scripts build with array literals. While every element is an
+ * integer the elements live in a long[], while every element is a double
+ * in a double[], and in an Object[] otherwise, so a numeric list takes 8
+ * bytes an element instead of a pointer and a boxed number. Storing a value
+ * the array cannot hold moves the elements to an Object[] once; a list
+ * never goes back to a primitive array.
+ *
+ * Scripts never see the difference: elements are boxed again when read,
+ * and the list prints like any other list. It compares and hashes like
+ * one too, except that elements are compared like {@code ==} in a script,
+ * so [1] equals [1.0].
+ */
+public final class ScriptList extends AbstractList<Object> implements RandomAccess {
+    private static final int DEFAULT_CAPACITY = 10;
+
+    // at most one of these is set; none of them is until the first element
+    // is added, which decides the array the list starts with
+    private long[] longs;
+    private double[] doubles;
+    private Object[] objects;
+    private int capacity;
+    private int size;
+
+    public ScriptList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ScriptList(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public ScriptList(Collection<?> values) {
+        if (values instanceof ScriptList) {
+            ScriptList list = (ScriptList) values;
+            size = list.size;
+            capacity = list.size;
+            if (list.longs != null)
+                longs = Arrays.copyOf(list.longs, size);
+            else if (list.doubles != null)
+                doubles = Arrays.copyOf(list.doubles, size);
+            else if (list.objects != null)
+                objects = Arrays.copyOf(list.objects, size);
+            return;
+        }
+        capacity = values.size();
+        for (Object value : values)
+            add(value);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Object get(int index) {
+        check(index);
+        if (longs != null)
+            return longs[index];
+        if (doubles != null)
+            return doubles[index];
+        return objects[index];
+    }
+
+    @Override
+    public Object set(int index, Object value) {
+        Object previous = get(index);
+        store(index, value);
+        return previous;
+    }
+
+    /**
+     * Replaces an element like {@link #set} without boxing the element it
+     * replaces.
+     */
+    public void store(int index, Object value) {
+        check(index);
+        if (longs != null) {
+            if (value instanceof Long) {
+                longs[index] = (Long) value;
+                return;
+            }
+        } else if (doubles != null) {
+            if (value instanceof Double) {
+                doubles[index] = (Double) value;
+                return;
+            }
+        }
+        generalize();
+        objects[index] = value;
+    }
+
+    @Override
+    public boolean add(Object value) {
+        if (longs == null && doubles == null && objects == null) {
+            int length = Math.max(capacity, 1);
+            if (value instanceof Long)
+                longs = new long[length];
+            else if (value instanceof Double)
+                doubles = new double[length];
+            else
+                objects = new Object[length];
+            capacity = length;
+        } else if (size == capacity) {
+            grow();
+        }
+        modCount++;
+        size++;
+        store(size - 1, value);
+        return true;
+    }
+
+    private void grow() {
+        capacity = capacity + (capacity >> 1) + 1;
+        if (longs != null)
+            longs = Arrays.copyOf(longs, capacity);
+        else if (doubles != null)
+            doubles = Arrays.copyOf(doubles, capacity);
+        else
+            objects = Arrays.copyOf(objects, capacity);
+    }
+
+    /**
+     * Moves the elements to an Object[], which holds anything.
+     */
+    private void generalize() {
+        if (objects != null)
+            return;
+        objects = new Object[capacity];
+        for (int i = 0; i < size; i++)
+            objects[i] = (longs != null) ? (Object) longs[i] : (Object) doubles[i];
+        longs = null;
+        doubles = null;
+    }
+
+    /**
+     * Compares element by element like any list, except that elements are
+     * compared with {@link LazyString#equal}.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (other == this)
+            return true;
+        if (!(other instanceof List))
+            return false;
+        List<?> list = (List<?>) other;
+        if (list.size() != size)
+            return false;
+        if (longs != null && other instanceof ScriptList && ((ScriptList) other).longs != null) {
+            long[] others = ((ScriptList) other).longs;
+            for (int i = 0; i < size; i++) {
+                if (longs[i] != others[i])
+                    return false;
+            }
+            return true;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!LazyString.equal(get(i), list.get(i)))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < size; i++)
+            hash = 31 * hash + LazyString.hash(get(i));
+        return hash;
+    }
+
+    private void check(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(
+                    String.format("Index %d out of bounds for length %d", index, size));
+    }
+}
@@ -0,0 +1,408 @@
+package com.example.interpreter;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The map scripts build with map literals. Entries are kept in insertion
+ * order in parallel arrays, and an open addressing table of entry numbers
+ * finds them by hash, so a lookup probes an int[] instead of chasing nodes.
+ * Integer and double keys are stored unboxed in a long[]; other keys are
+ * compared with equals, strings using the hash the String caches. Lazy
+ * strings are flattened before they are used as keys.
+ *
+ * Numeric keys are hashed and compared by value, like {@code ==} in a
+ * script, so 2 and 2.0 are the same key and {@code m[4 / 2]} finds the
+ * entry stored under 2. The key keeps the type it was first stored with.
+ * Values are compared with {@link LazyString#equal}. Removed entries stay
+ * behind as gaps until the next resize.
+ */
+public final class ScriptMap extends AbstractMap<Object, Object> {
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private static final byte REMOVED = 0;
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte OBJECT = 3;
+
+    // entries, in insertion order
+    private byte[] kinds;
+    private long[] numbers;
+    private Object[] keys;
+    private Object[] values;
+    private int[] hashes;
+    private int count;
+    private int size;
+
+    // entry number + 1 for each slot of the table, 0 for an empty slot
+    private int[] table;
+    private int modCount;
+
+    private Set<Map.Entry<Object, Object>> entrySet;
+
+    public ScriptMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ScriptMap(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    public ScriptMap(Map<?, ?> map) {
+        if (map instanceof ScriptMap && ((ScriptMap) map).count == ((ScriptMap) map).size) {
+            ScriptMap source = (ScriptMap) map;
+            int capacity = Math.max(source.size, 1);
+            kinds = Arrays.copyOf(source.kinds, capacity);
+            numbers = Arrays.copyOf(source.numbers, capacity);
+            keys = Arrays.copyOf(source.keys, capacity);
+            values = Arrays.copyOf(source.values, capacity);
+            hashes = Arrays.copyOf(source.hashes, capacity);
+            table = source.table.clone();
+            count = source.count;
+            size = source.size;
+            return;
+        }
+        allocate(Math.max(map.size(), 1));
+        for (Map.Entry<?, ?> entry : map.entrySet())
+            store(entry.getKey(), entry.getValue());
+    }
+
+    private void allocate(int capacity) {
+        kinds = new byte[capacity];
+        numbers = new long[capacity];
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        hashes = new int[capacity];
+        table = new int[tableSize(capacity)];
+    }
+
+    private static int tableSize(int capacity) {
+        int size = 4;
+        while (size < capacity * 2)
+            size <<= 1;
+        return size;
+    }
+
+    private static int mix(long bits) {
+        bits *= 0x9E3779B97F4A7C15L;
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    /**
+     * Hashes a numeric key by the double of its value, with 0.0 and -0.0
+     * alike, so keys that compare equal as numbers hash alike.
+     */
+    private static int mix(double number) {
+        return mix(Double.doubleToLongBits(number + 0.0));
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int entry = find(LazyString.flatten(key));
+        return (entry < 0) ? null : values[entry];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(LazyString.flatten(key)) >= 0;
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        key = LazyString.flatten(key);
+        int entry = find(key);
+        if (entry >= 0) {
+            Object previous = values[entry];
+            values[entry] = value;
+            return previous;
+        }
+        insert(key, value);
+        return null;
+    }
+
+    /**
+     * Adds or replaces an entry like {@link #put} without returning the value
+     * it replaces.
+     */
+    public void store(Object key, Object value) {
+        key = LazyString.flatten(key);
+        int entry = find(key);
+        if (entry >= 0)
+            values[entry] = value;
+        else
+            insert(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int entry = find(LazyString.flatten(key));
+        if (entry < 0)
+            return null;
+        Object previous = values[entry];
+        kinds[entry] = REMOVED;
+        keys[entry] = null;
+        values[entry] = null;
+        size--;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(kinds, 0, count, REMOVED);
+        Arrays.fill(keys, 0, count, null);
+        Arrays.fill(values, 0, count, null);
+        Arrays.fill(table, 0);
+        count = 0;
+        size = 0;
+        modCount++;
+    }
+
+    private int find(Object key) {
+        if (key instanceof Long)
+            return find((long) (Long) key);
+        if (key instanceof Double)
+            return find((double) (Double) key);
+        int hash = mix(Objects.hashCode(key));
+        int mask = table.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (entry < 0)
+                return -1;
+            if (kinds[entry] == OBJECT && hashes[entry] == hash && Objects.equals(keys[entry], key))
+                return entry;
+        }
+    }
+
+    private int find(long number) {
+        int hash = mix((double) number);
+        int mask = table.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (entry < 0)
+                return -1;
+            if (kinds[entry] == LONG) {
+                if (numbers[entry] == number)
+                    return entry;
+            } else if (kinds[entry] == DOUBLE) {
+                if (Double.longBitsToDouble(numbers[entry]) == number)
+                    return entry;
+            }
+        }
+    }
+
+    private int find(double number) {
+        long bits = Double.doubleToLongBits(number);
+        int hash = mix(number);
+        int mask = table.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (entry < 0)
+                return -1;
+            if (kinds[entry] == DOUBLE) {
+                // the bits match for NaN, which is never == itself
+                if (numbers[entry] == bits || Double.longBitsToDouble(numbers[entry]) == number)
+                    return entry;
+            } else if (kinds[entry] == LONG) {
+                if (numbers[entry] == number)
+                    return entry;
+            }
+        }
+    }
+
+    private void insert(Object key, Object value) {
+        if (count == kinds.length)
+            resize();
+        int entry = count++;
+        if (key instanceof Long) {
+            kinds[entry] = LONG;
+            numbers[entry] = (Long) key;
+            hashes[entry] = mix((double) numbers[entry]);
+        } else if (key instanceof Double) {
+            kinds[entry] = DOUBLE;
+            numbers[entry] = Double.doubleToLongBits((Double) key);
+            hashes[entry] = mix((double) (Double) key);
+        } else {
+            kinds[entry] = OBJECT;
+            keys[entry] = key;
+            hashes[entry] = mix(Objects.hashCode(key));
+        }
+        values[entry] = value;
+        link(entry);
+        size++;
+        modCount++;
+    }
+
+    private void link(int entry) {
+        int mask = table.length - 1;
+        int slot = hashes[entry] & mask;
+        while (table[slot] != 0)
+            slot = (slot + 1) & mask;
+        table[slot] = entry + 1;
+    }
+
+    /**
+     * Makes room for more entries, dropping the removed ones and rebuilding
+     * the table.
+     */
+    private void resize() {
+        int capacity = Math.max(size * 2, DEFAULT_CAPACITY);
+        byte[] oldKinds = kinds;
+        long[] oldNumbers = numbers;
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldHashes = hashes;
+        int oldCount = count;
+        allocate(capacity);
+        count = 0;
+        for (int i = 0; i < oldCount; i++) {
+            if (oldKinds[i] == REMOVED)
+                continue;
+            kinds[count] = oldKinds[i];
+            numbers[count] = oldNumbers[i];
+            keys[count] = oldKeys[i];
+            values[count] = oldValues[i];
+            hashes[count] = oldHashes[i];
+            link(count++);
+        }
+    }
+
+    /**
+     * Compares entry by entry like any map, except that values are compared
+     * with {@link LazyString#equal}. Keys are flattened already.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (other == this)
+            return true;
+        if (!(other instanceof Map))
+            return false;
+        Map<?, ?> map = (Map<?, ?>) other;
+        if (map.size() != size)
+            return false;
+        for (int entry = 0; entry < count; entry++) {
+            if (kinds[entry] == REMOVED)
+                continue;
+            Object key = key(entry);
+            Object value = map.get(key);
+            if (value == null && !map.containsKey(key))
+                return false;
+            if (!LazyString.equal(values[entry], value))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int entry = 0; entry < count; entry++) {
+            if (kinds[entry] != REMOVED)
+                hash += LazyString.hash(key(entry)) ^ LazyString.hash(values[entry]);
+        }
+        return hash;
+    }
+
+    private Object key(int entry) {
+        switch (kinds[entry]) {
+            case LONG:
+                return numbers[entry];
+            case DOUBLE:
+                return Double.longBitsToDouble(numbers[entry]);
+            default:
+                return keys[entry];
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<Object, Object>>() {
+                @Override
+                public Iterator<Map.Entry<Object, Object>> iterator() {
+                    return new Entries();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * Walks the entries in insertion order.
+     */
+    private final class Entries implements Iterator<Map.Entry<Object, Object>> {
+        private int next = advance(0);
+        private int last = -1;
+        private int expected = modCount;
+
+        private int advance(int entry) {
+            while (entry < count && kinds[entry] == REMOVED)
+                entry++;
+            return entry;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < count;
+        }
+
+        @Override
+        public Map.Entry<Object, Object> next() {
+            if (expected != modCount)
+                throw new ConcurrentModificationException();
+            if (next >= count)
+                throw new NoSuchElementException();
+            last = next;
+            next = advance(next + 1);
+            return new Entry(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0)
+                throw new IllegalStateException();
+            if (expected != modCount)
+                throw new ConcurrentModificationException();
+            ScriptMap.this.remove(key(last));
+            expected = modCount;
+            last = -1;
+        }
+    }
+
+    private final class Entry extends AbstractMap.SimpleEntry<Object, Object> {
+        private final int entry;
+
+        Entry(int entry) {
+            super(key(entry), values[entry]);
+            this.entry = entry;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            values[entry] = value;
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.interpreter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.example.token.Symbol;
+
+/**
+ * The field layout shared by instances of a class that had the same fields
+ * added in the same order. Each class has its own root shape, and adding a
+ * field moves an instance along a transition to a child shape that is
+ * created once and reused by every instance built the same way.
+ */
+class Shape {
+    private final CustomClass owner;
+    private final Map<Symbol, Integer> indexes;
+    private final Map<Symbol, Shape> transitions = new HashMap<>();
+
+    Shape(CustomClass owner) {
+        this.owner = owner;
+        this.indexes = new HashMap<>();
+    }
+
+    private Shape(Shape parent, Symbol name) {
+        this.owner = parent.owner;
+        this.indexes = new HashMap<>(parent.indexes);
+        this.indexes.put(name, parent.size());
+    }
+
+    CustomClass getOwner() {
+        return owner;
+    }
+
+    int size() {
+        return indexes.size();
+    }
+
+    int indexOf(Symbol name) {
+        Integer index = indexes.get(name);
+        return (index == null) ? -1 : index;
+    }
+
+    Shape withField(Symbol name) {
+        Shape shape = transitions.get(name);
+        if (shape == null) {
+            shape = new Shape(this, name);
+            transitions.put(name, shape);
+        }
+        return shape;
+    }
+}
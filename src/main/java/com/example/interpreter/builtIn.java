@@ -1,5 +1,7 @@
 package com.example.interpreter;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
@@ -20,7 +22,7 @@ public class builtIn {
         }
 
         @Override
-        public Object call(Interpreter interpreter, List<Object> arguments) {
+        public Object call(Interpreter interpreter, Object[] arguments) {
             return (double) System.currentTimeMillis() / 1000.0;
         }
     }
@@ -37,7 +39,7 @@ public class builtIn {
         }
 
         @Override
-        public Object call(Interpreter interpreter, List<Object> arguments) {
+        public Object call(Interpreter interpreter, Object[] arguments) {
             StringBuilder sb = new StringBuilder();
             for (Object obj : arguments) {
                 if (obj == null) {
@@ -65,11 +67,20 @@ public class builtIn {
         }
 
         @Override
-        public Object call(Interpreter interpreter, List<Object> arguments) {
-            Object obj = arguments.get(0);
+        public Object call(Interpreter interpreter, Object[] arguments) {
+            Object obj = arguments[0];
             if (obj == null) {
                 return "null";
             }
+            if (obj instanceof LazyString) {
+                return String.class.getSimpleName();
+            }
+            if (obj instanceof ScriptList) {
+                return ArrayList.class.getSimpleName();
+            }
+            if (obj instanceof ScriptMap) {
+                return HashMap.class.getSimpleName();
+            }
             return obj.getClass().getSimpleName();
         }
 
@@ -87,7 +98,7 @@ public class builtIn {
         }
 
         @Override
-        public Object call(Interpreter interpreter, List<Object> arguments) {
+        public Object call(Interpreter interpreter, Object[] arguments) {
             System.exit(0);
             return null;
         }
@@ -105,7 +116,7 @@ public class builtIn {
         }
 
         @Override
-        public Object call(Interpreter interpreter, List<Object> arguments) {
+        public Object call(Interpreter interpreter, Object[] arguments) {
             String input = "";
             try (Scanner scanner = new Scanner(System.in)) {
                 input = scanner.nextLine();
@@ -128,9 +139,9 @@ public class builtIn {
         }
 
         @Override
-        public Object call(Interpreter interpreter, List<Object> arguments) {
-            Object obj = arguments.get(0);
-            return interpreter.bool(obj);
+        public Object call(Interpreter interpreter, Object[] arguments) {
+            Object obj = arguments[0];
+            return Interpreter.bool(obj);
         }
     }
 
@@ -146,17 +157,17 @@ public class builtIn {
         }
 
         @Override
-        public Object call(Interpreter interpreter, List<Object> arguments) {
-            Object obj = arguments.get(0);
-            if (obj instanceof String) {
-                return (double) ((String) obj).length();
+        public Object call(Interpreter interpreter, Object[] arguments) {
+            Object obj = arguments[0];
+            if (obj instanceof CharSequence) {
+                return (long) ((CharSequence) obj).length();
             }
             if (obj instanceof List) {
-                return (double) ((List) obj).size();
+                return (long) ((List) obj).size();
             }
 
             if (obj instanceof Map) {
-                return (double) ((Map) obj).size();
+                return (long) ((Map) obj).size();
             }
             return null;
         }
@@ -0,0 +1,13 @@
+package com.example.jit;
+
+import com.example.environment.Environment;
+import com.example.interpreter.Interpreter;
+
+/**
+ * The body of a script function compiled to a JVM class by the
+ * {@link JitCompiler}. It takes the same inputs as an interpreted call: the
+ * environment the function closes over and the evaluated arguments.
+ */
+public interface CompiledFunction {
+    Object invoke(Interpreter interpreter, Environment closure, Object[] arguments);
+}
@@ -0,0 +1,16 @@
+package com.example.jit;
+
+import com.example.environment.Environment;
+import com.example.interpreter.Interpreter;
+
+/**
+ * A loop compiled by the {@link JitCompiler} while it was running. It
+ * reads and writes the variables around it through the environment the loop
+ * runs in, so the interpreter can hand over between two iterations.
+ */
+public interface CompiledLoop {
+    /** Returned by {@link #run} when the loop ends without a return. */
+    Object COMPLETED = new Object();
+
+    Object run(Interpreter interpreter, Environment environment);
+}
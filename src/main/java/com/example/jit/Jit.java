@@ -0,0 +1,67 @@
+package com.example.jit;
+
+import com.example.ast.Stmt;
+
+/**
+ * Decides when code is hot enough to compile. Every function declaration
+ * counts its calls and every loop counts its back edges; when a count
+ * reaches its threshold the code is compiled and later runs use the compiled
+ * class. A loop is replaced on the stack, between two iterations, so a
+ * single long running loop does not have to wait for another call.
+ *
+ * The counts live on the AST nodes, so every closure created from the same
+ * declaration shares one count and one compiled class. Code the compiler
+ * cannot handle stays interpreted and is not tried again.
+ *
+ * The thresholds are read from the {@code jit.callThreshold} and
+ * {@code jit.loopThreshold} system properties; zero turns the tier off.
+ */
+public final class Jit {
+    public static final int CALL_THRESHOLD = Integer.getInteger("jit.callThreshold", 1000);
+    public static final int LOOP_THRESHOLD = Integer.getInteger("jit.loopThreshold", 10000);
+
+    private Jit() {
+    }
+
+    /**
+     * Counts a call of the function and returns its compiled body, or null
+     * while it should still be interpreted.
+     */
+    public static CompiledFunction compiled(Stmt.Function function, boolean isConstructor) {
+        CompiledFunction compiled = (CompiledFunction) function.getCompiled();
+        if (compiled != null)
+            return compiled;
+        int calls = function.getCalls();
+        if (CALL_THRESHOLD <= 0 || calls >= CALL_THRESHOLD)
+            return null;
+        function.setCalls(++calls);
+        if (calls < CALL_THRESHOLD)
+            return null;
+        compiled = JitCompiler.compile(function, isConstructor);
+        function.setCompiled(compiled);
+        return compiled;
+    }
+
+    /**
+     * Returns the loop compiled so far, or null while it is interpreted.
+     */
+    public static CompiledLoop compiled(Stmt.Loop loop) {
+        return (CompiledLoop) loop.getCompiled();
+    }
+
+    /**
+     * Counts a back edge of the loop and returns the compiled loop once it
+     * has become hot, or null while it should still be interpreted.
+     */
+    public static CompiledLoop backEdge(Stmt.Loop loop) {
+        int backEdges = loop.getBackEdges();
+        if (LOOP_THRESHOLD <= 0 || backEdges >= LOOP_THRESHOLD)
+            return null;
+        loop.setBackEdges(++backEdges);
+        if (backEdges < LOOP_THRESHOLD)
+            return null;
+        CompiledLoop compiled = JitCompiler.compile(loop);
+        loop.setCompiled(compiled);
+        return compiled;
+    }
+}
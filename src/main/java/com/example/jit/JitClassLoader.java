@@ -0,0 +1,16 @@
+package com.example.jit;
+
+/**
+ * Loads the classes generated by the {@link JitCompiler}. They only refer to
+ * public types of the interpreter, so the loader just delegates everything
+ * else to the one that loaded the interpreter.
+ */
+class JitClassLoader extends ClassLoader {
+    JitClassLoader() {
+        super(JitClassLoader.class.getClassLoader());
+    }
+
+    Class<?> define(String name, byte[] code) {
+        return defineClass(name, code, 0, code.length);
+    }
+}
@@ -0,0 +1,845 @@
+package com.example.jit;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.objectweb.asm.ClassTooLargeException;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodTooLargeException;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import com.example.ast.Expr;
+import com.example.ast.ExprVisitor;
+import com.example.ast.Stmt;
+import com.example.ast.StmtVisitor;
+import com.example.environment.Environment;
+import com.example.interpreter.Arithmetic;
+import com.example.interpreter.CustomInstance;
+import com.example.interpreter.Interpreter;
+import com.example.interpreter.ScriptList;
+import com.example.interpreter.ScriptMap;
+import com.example.token.Token;
+import com.example.token.TokenType;
+
+/**
+ * Compiles the body of a script function into a JVM class implementing
+ * {@link CompiledFunction}, or a running loop into one implementing
+ * {@link CompiledLoop}. Variables of the function and of the blocks
+ * inside it become JVM locals, variables of enclosing functions are read
+ * through the closure environment, and everything that needs the runtime
+ * goes through {@link JitRuntime}.
+ *
+ * A function that declares nested functions or classes would need its
+ * frames as real environments for them to close over, so those are left to
+ * the interpreter, as is {@code super}.
+ */
+public class JitCompiler implements ExprVisitor, StmtVisitor {
+    private static final JitClassLoader loader = new JitClassLoader();
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String LIST_TYPE = Type.getInternalName(ScriptList.class);
+    private static final String MAP_TYPE = Type.getInternalName(ScriptMap.class);
+    private static final String RUNTIME = Type.getInternalName(JitRuntime.class);
+    private static final String ARITHMETIC = Type.getInternalName(Arithmetic.class);
+    private static final String INTERPRETER_TYPE = Type.getInternalName(Interpreter.class);
+    private static final String ENVIRONMENT_TYPE = Type.getInternalName(Environment.class);
+    private static final String INSTANCE_TYPE = Type.getInternalName(CustomInstance.class);
+    private static final String TOKEN_TYPE = Type.getInternalName(Token.class);
+
+    private static final int THIS = 0;
+    private static final int INTERPRETER = 1;
+    private static final int CLOSURE = 2;
+    private static final int ARGUMENTS = 3;
+
+    private final String className;
+    private final List<Object> constants = new ArrayList<>();
+    private final List<Integer> scopes = new ArrayList<>();
+    private final List<Loop> loops = new ArrayList<>();
+    private MethodVisitor mv;
+    private int nextLocal = ARGUMENTS + 1;
+    // the function being compiled and where its body starts, null for a loop
+    private Stmt.Function self;
+    private Label body;
+
+    private static class Loop {
+        private final Label start = new Label();
+        private final Label end = new Label();
+        // where continue jumps to
+        private Label next = start;
+    }
+
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private JitCompiler(String className) {
+        this.className = className;
+    }
+
+    /**
+     * Returns the compiled body of the function, or null when it uses
+     * something the compiler does not handle.
+     */
+    public static CompiledFunction compile(Stmt.Function function, boolean isConstructor) {
+        String name = function.getName().getLiteral().toString();
+        try {
+            return (CompiledFunction) new JitCompiler(className(name)).generate(CompiledFunction.class, "invoke",
+                    "(L" + INTERPRETER_TYPE + ";L" + ENVIRONMENT_TYPE + ";[Ljava/lang/Object;)Ljava/lang/Object;",
+                    compiler -> compiler.function(function, isConstructor));
+        } catch (Unsupported | MethodTooLargeException | ClassTooLargeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the compiled loop, or null when it uses something the compiler
+     * does not handle.
+     */
+    public static CompiledLoop compile(Stmt.Loop loop) {
+        try {
+            return (CompiledLoop) new JitCompiler(className("loop")).generate(CompiledLoop.class, "run",
+                    "(L" + INTERPRETER_TYPE + ";L" + ENVIRONMENT_TYPE + ";)Ljava/lang/Object;",
+                    compiler -> compiler.loop(loop));
+        } catch (Unsupported | MethodTooLargeException | ClassTooLargeException e) {
+            return null;
+        }
+    }
+
+    private static String className(String name) {
+        return String.format("com/example/jit/Compiled$%s$%d", name, counter.incrementAndGet());
+    }
+
+    private Object generate(Class<?> type, String method, String descriptor, Consumer<JitCompiler> body) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                return OBJECT;
+            }
+        };
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null, OBJECT,
+                new String[] { Type.getInternalName(type) });
+        cw.visitField(ACC_PRIVATE | ACC_FINAL, "constants", "[Ljava/lang/Object;", null, null).visitEnd();
+
+        MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, THIS);
+        init.visitMethodInsn(INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+        init.visitVarInsn(ALOAD, THIS);
+        init.visitVarInsn(ALOAD, 1);
+        init.visitFieldInsn(PUTFIELD, className, "constants", "[Ljava/lang/Object;");
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, method, descriptor, null, null);
+        mv.visitCode();
+        body.accept(this);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+
+        byte[] code = cw.toByteArray();
+        try {
+            return loader.define(className.replace('/', '.'), code)
+                    .getConstructor(Object[].class)
+                    .newInstance((Object) constants.toArray());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void function(Stmt.Function function, boolean isConstructor) {
+        int base = beginScope(function.getFrameSize());
+        for (int i = 0; i < function.getParams().size(); i++) {
+            mv.visitVarInsn(ALOAD, ARGUMENTS);
+            push(i);
+            mv.visitInsn(AALOAD);
+            mv.visitVarInsn(ASTORE, base + i);
+        }
+        self = function;
+        body = new Label();
+        mv.visitLabel(body);
+        for (Stmt stmt : function.getBody().getStmts())
+            stmt.accept(this);
+        if (isConstructor) {
+            mv.visitVarInsn(ALOAD, CLOSURE);
+            push(0);
+            push(0);
+            mv.visitMethodInsn(INVOKEVIRTUAL, ENVIRONMENT_TYPE, "getAt", "(II)Ljava/lang/Object;", false);
+        } else {
+            mv.visitInsn(ACONST_NULL);
+        }
+        mv.visitInsn(ARETURN);
+        endScope();
+    }
+
+    /**
+     * A loop has no frame of its own: everything declared outside of it,
+     * including the variables of a for loop, is reached through the
+     * environment it runs in, which takes the place of the closure.
+     */
+    private void loop(Stmt.Loop loop) {
+        if (loop instanceof Stmt.For)
+            forLoop((Stmt.For) loop);
+        else
+            loop.accept(this);
+        mv.visitFieldInsn(GETSTATIC, Type.getInternalName(CompiledLoop.class), "COMPLETED", "Ljava/lang/Object;");
+        mv.visitInsn(ARETURN);
+    }
+
+    private int beginScope(int size) {
+        int base = nextLocal;
+        scopes.add(base);
+        nextLocal += size;
+        for (int i = 0; i < size; i++) {
+            mv.visitInsn(ACONST_NULL);
+            mv.visitVarInsn(ASTORE, base + i);
+        }
+        return base;
+    }
+
+    private void endScope() {
+        nextLocal = scopes.remove(scopes.size() - 1);
+    }
+
+    private void push(int value) {
+        if (value >= -1 && value <= 5)
+            mv.visitInsn(ICONST_0 + value);
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+            mv.visitIntInsn(BIPUSH, value);
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+            mv.visitIntInsn(SIPUSH, value);
+        else
+            mv.visitLdcInsn(value);
+    }
+
+    private void constant(Object value, Class<?> type) {
+        int index = constants.size();
+        constants.add(value);
+        mv.visitVarInsn(ALOAD, THIS);
+        mv.visitFieldInsn(GETFIELD, className, "constants", "[Ljava/lang/Object;");
+        push(index);
+        mv.visitInsn(AALOAD);
+        mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+    }
+
+    private void runtime(String name, String descriptor) {
+        mv.visitMethodInsn(INVOKESTATIC, RUNTIME, name, descriptor, false);
+    }
+
+    private void arithmetic(String name, String descriptor) {
+        mv.visitMethodInsn(INVOKESTATIC, ARITHMETIC, name, descriptor, false);
+    }
+
+    private void boxBoolean() {
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", false);
+    }
+
+    private void boxDouble() {
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", false);
+    }
+
+    private void load(Expr.Resolvable expr, Token name) {
+        int depth = expr.getDepth();
+        if (depth == -1) {
+            mv.visitVarInsn(ALOAD, INTERPRETER);
+            constant(name, Token.class);
+            runtime("getGlobal", "(L" + INTERPRETER_TYPE + ";L" + TOKEN_TYPE + ";)Ljava/lang/Object;");
+        } else if (depth < scopes.size()) {
+            mv.visitVarInsn(ALOAD, scopes.get(scopes.size() - 1 - depth) + expr.getSlot());
+        } else {
+            mv.visitVarInsn(ALOAD, CLOSURE);
+            push(depth - scopes.size());
+            push(expr.getSlot());
+            mv.visitMethodInsn(INVOKEVIRTUAL, ENVIRONMENT_TYPE, "getAt", "(II)Ljava/lang/Object;", false);
+        }
+    }
+
+    /**
+     * Leaves the expression on the stack as an unboxed double, mirroring
+     * the interpreter's arithmetic fast path.
+     */
+    private void number(Expr expr, Token op) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            if (binary.isArithmetic()) {
+                number(binary.getLeft(), binary.getOperator());
+                number(binary.getRight(), binary.getOperator());
+                switch (binary.getOperator().getType()) {
+                    case Plus:
+                        mv.visitInsn(DADD);
+                        return;
+                    case Minus:
+                        mv.visitInsn(DSUB);
+                        return;
+                    case Multiply:
+                        mv.visitInsn(DMUL);
+                        return;
+                    case Divide:
+                        mv.visitInsn(DDIV);
+                        return;
+                    case Modulo:
+                        mv.visitInsn(DREM);
+                        return;
+                    case Exponent:
+                        mv.visitMethodInsn(INVOKESTATIC, "java/lang/Math", "pow", "(DD)D", false);
+                        return;
+                    default:
+                        throw new Unsupported();
+                }
+            }
+        } else if (expr instanceof Expr.Literal && ((Expr.Literal) expr).getValue() instanceof Double) {
+            mv.visitLdcInsn(((Expr.Literal) expr).getValue());
+            return;
+        } else if (expr instanceof Expr.Literal && ((Expr.Literal) expr).getValue() instanceof Long) {
+            mv.visitLdcInsn(((Long) ((Expr.Literal) expr).getValue()).doubleValue());
+            return;
+        } else if (expr instanceof Expr.Grouping) {
+            number(((Expr.Grouping) expr).getExpression(), op);
+            return;
+        } else if (expr instanceof Expr.Unary
+                && ((Expr.Unary) expr).getOperator().getType() == TokenType.Minus) {
+            number(((Expr.Unary) expr).getRight(), ((Expr.Unary) expr).getOperator());
+            mv.visitInsn(DNEG);
+            return;
+        }
+        expr.accept(this);
+        constant(op, Token.class);
+        arithmetic("toDouble", "(Ljava/lang/Object;L" + TOKEN_TYPE + ";)D");
+    }
+
+    /**
+     * Leaves the truthiness of the expression on the stack as an int, so
+     * conditions can jump on it without boxing a Boolean.
+     */
+    private void condition(Expr expr) {
+        if (expr instanceof Expr.Binary && !((Expr.Binary) expr).isArithmetic()) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            Token op = binary.getOperator();
+            switch (op.getType()) {
+                case And:
+                case Or:
+                    condition(binary.getLeft());
+                    condition(binary.getRight());
+                    mv.visitInsn(op.getType() == TokenType.And ? IAND : IOR);
+                    return;
+                case Equal:
+                case NotEqual:
+                    binary.getLeft().accept(this);
+                    binary.getRight().accept(this);
+                    mv.visitMethodInsn(INVOKESTATIC, INTERPRETER_TYPE, "isEqual",
+                            "(Ljava/lang/Object;Ljava/lang/Object;)Z", false);
+                    if (op.getType() == TokenType.NotEqual) {
+                        mv.visitInsn(ICONST_1);
+                        mv.visitInsn(IXOR);
+                    }
+                    return;
+                case GreaterThan:
+                    compare(binary, "greaterThan");
+                    return;
+                case GreaterThanOrEqual:
+                    compare(binary, "greaterEqual");
+                    return;
+                case LessThan:
+                    compare(binary, "lessThan");
+                    return;
+                case LessThanOrEqual:
+                    compare(binary, "lessEqual");
+                    return;
+                default:
+                    break;
+            }
+        } else if (expr instanceof Expr.Unary
+                && ((Expr.Unary) expr).getOperator().getType() == TokenType.Not) {
+            condition(((Expr.Unary) expr).getRight());
+            mv.visitInsn(ICONST_1);
+            mv.visitInsn(IXOR);
+            return;
+        } else if (expr instanceof Expr.Literal && ((Expr.Literal) expr).getValue() instanceof Boolean) {
+            push((Boolean) ((Expr.Literal) expr).getValue() ? 1 : 0);
+            return;
+        } else if (expr instanceof Expr.Grouping) {
+            condition(((Expr.Grouping) expr).getExpression());
+            return;
+        }
+        expr.accept(this);
+        mv.visitMethodInsn(INVOKESTATIC, INTERPRETER_TYPE, "bool", "(Ljava/lang/Object;)Z", false);
+    }
+
+    private void compare(Expr.Binary binary, String name) {
+        binary.getLeft().accept(this);
+        binary.getRight().accept(this);
+        constant(binary.getOperator(), Token.class);
+        arithmetic(name, "(Ljava/lang/Object;Ljava/lang/Object;L" + TOKEN_TYPE + ";)Z");
+    }
+
+    private void operation(Expr.Binary binary, String name) {
+        binary.getLeft().accept(this);
+        binary.getRight().accept(this);
+        constant(binary.getOperator(), Token.class);
+        arithmetic(name, "(Ljava/lang/Object;Ljava/lang/Object;L" + TOKEN_TYPE + ";)Ljava/lang/Object;");
+    }
+
+    private void arguments(List<Expr> arguments) {
+        push(arguments.size());
+        mv.visitTypeInsn(ANEWARRAY, OBJECT);
+        for (int i = 0; i < arguments.size(); i++) {
+            mv.visitInsn(DUP);
+            push(i);
+            arguments.get(i).accept(this);
+            mv.visitInsn(AASTORE);
+        }
+    }
+
+    @Override
+    public void visitBlockStmt(Stmt.Block stmt) {
+        beginScope(stmt.getFrameSize());
+        for (Stmt inner : stmt.getStmts())
+            inner.accept(this);
+        endScope();
+    }
+
+    @Override
+    public void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public void visitExprStmt(Stmt.ExprStmt stmt) {
+        stmt.getExpression().accept(this);
+        mv.visitInsn(POP);
+    }
+
+    @Override
+    public void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public void visitImportStmt(Stmt.Import stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public void visitIfStmt(Stmt.If stmt) {
+        Label otherwise = new Label();
+        Label end = new Label();
+        condition(stmt.getCondition());
+        mv.visitJumpInsn(IFEQ, otherwise);
+        stmt.getThenBranch().accept(this);
+        mv.visitJumpInsn(GOTO, end);
+        mv.visitLabel(otherwise);
+        if (stmt.getElseBranch() != null)
+            stmt.getElseBranch().accept(this);
+        mv.visitLabel(end);
+    }
+
+    @Override
+    public void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.getValue() instanceof Expr.Call && ((Expr.Call) stmt.getValue()).isTailCall())
+            tailCall((Expr.Call) stmt.getValue());
+        else if (stmt.getValue() != null)
+            stmt.getValue().accept(this);
+        else
+            mv.visitInsn(ACONST_NULL);
+        mv.visitInsn(ARETURN);
+    }
+
+    /**
+     * A call to the function itself reuses the frame: the arguments replace
+     * the parameters and the body starts over. Any other call is deferred
+     * to the trampoline that runs this function.
+     */
+    private void tailCall(Expr.Call call) {
+        if (call.getCallee() instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) call.getCallee();
+            get.getObject().accept(this);
+            constant(get.getName(), Token.class);
+            runtime("receiver", "(Ljava/lang/Object;L" + TOKEN_TYPE + ";)Ljava/lang/Object;");
+            mv.visitInsn(DUP);
+            constant(get, Expr.Get.class);
+            mv.visitVarInsn(ALOAD, INTERPRETER);
+            runtime("lookup", "(Ljava/lang/Object;Lcom/example/ast/Expr$Get;L" + INTERPRETER_TYPE
+                    + ";)Ljava/lang/Object;");
+            arguments(call.getArguments());
+            mv.visitVarInsn(ALOAD, INTERPRETER);
+            constant(call.getParen(), Token.class);
+            runtime("tailInvoke", "(Ljava/lang/Object;Ljava/lang/Object;[Ljava/lang/Object;L"
+                    + INTERPRETER_TYPE + ";L" + TOKEN_TYPE + ";)Ljava/lang/Object;");
+            return;
+        }
+        call.getCallee().accept(this);
+        List<Expr> arguments = call.getArguments();
+        if (self == null || arguments.size() != self.getParams().size()) {
+            arguments(arguments);
+        } else {
+            int callee = nextLocal;
+            nextLocal += 1 + arguments.size();
+            mv.visitVarInsn(ASTORE, callee);
+            for (int i = 0; i < arguments.size(); i++) {
+                arguments.get(i).accept(this);
+                mv.visitVarInsn(ASTORE, callee + 1 + i);
+            }
+            Label other = new Label();
+            mv.visitVarInsn(ALOAD, callee);
+            constant(self, Stmt.Function.class);
+            runtime("selfClosure", "(Ljava/lang/Object;Lcom/example/ast/Stmt$Function;)L" + ENVIRONMENT_TYPE + ";");
+            mv.visitInsn(DUP);
+            mv.visitJumpInsn(IFNULL, other);
+            mv.visitVarInsn(ASTORE, CLOSURE);
+            for (int i = 0; i < arguments.size(); i++) {
+                mv.visitVarInsn(ALOAD, callee + 1 + i);
+                mv.visitVarInsn(ASTORE, scopes.get(0) + i);
+            }
+            mv.visitJumpInsn(GOTO, body);
+            mv.visitLabel(other);
+            mv.visitInsn(POP);
+            mv.visitVarInsn(ALOAD, callee);
+            push(arguments.size());
+            mv.visitTypeInsn(ANEWARRAY, OBJECT);
+            for (int i = 0; i < arguments.size(); i++) {
+                mv.visitInsn(DUP);
+                push(i);
+                mv.visitVarInsn(ALOAD, callee + 1 + i);
+                mv.visitInsn(AASTORE);
+            }
+            nextLocal = callee;
+        }
+        mv.visitVarInsn(ALOAD, INTERPRETER);
+        constant(call.getParen(), Token.class);
+        runtime("tailCall", "(Ljava/lang/Object;[Ljava/lang/Object;L" + INTERPRETER_TYPE + ";L" + TOKEN_TYPE
+                + ";)Ljava/lang/Object;");
+    }
+
+    @Override
+    public void visitLetStmt(Stmt.Let stmt) {
+        if (stmt.getSlot() == -1 || scopes.isEmpty())
+            throw new Unsupported();
+        if (stmt.getInitializer() != null)
+            stmt.getInitializer().accept(this);
+        else
+            mv.visitInsn(ACONST_NULL);
+        mv.visitVarInsn(ASTORE, scopes.get(scopes.size() - 1) + stmt.getSlot());
+    }
+
+    @Override
+    public void visitWhileStmt(Stmt.While stmt) {
+        Loop loop = new Loop();
+        mv.visitLabel(loop.start);
+        condition(stmt.getCondition());
+        mv.visitJumpInsn(IFEQ, loop.end);
+        loops.add(loop);
+        stmt.getBody().accept(this);
+        loops.remove(loops.size() - 1);
+        mv.visitJumpInsn(GOTO, loop.start);
+        mv.visitLabel(loop.end);
+    }
+
+    @Override
+    public void visitForStmt(Stmt.For stmt) {
+        beginScope(stmt.getFrameSize());
+        if (stmt.getInitializer() != null)
+            stmt.getInitializer().accept(this);
+        forLoop(stmt);
+        endScope();
+    }
+
+    private void forLoop(Stmt.For stmt) {
+        Loop loop = new Loop();
+        loop.next = new Label();
+        mv.visitLabel(loop.start);
+        if (stmt.getCondition() != null) {
+            condition(stmt.getCondition());
+            mv.visitJumpInsn(IFEQ, loop.end);
+        }
+        loops.add(loop);
+        stmt.getBody().accept(this);
+        loops.remove(loops.size() - 1);
+        mv.visitLabel(loop.next);
+        if (stmt.getIncrement() != null) {
+            stmt.getIncrement().accept(this);
+            mv.visitInsn(POP);
+        }
+        mv.visitJumpInsn(GOTO, loop.start);
+        mv.visitLabel(loop.end);
+    }
+
+    @Override
+    public void visitBreakStmt(Stmt.Break stmt) {
+        if (loops.isEmpty())
+            throw new Unsupported();
+        mv.visitJumpInsn(GOTO, loops.get(loops.size() - 1).end);
+    }
+
+    @Override
+    public void visitContinueStmt(Stmt.Continue stmt) {
+        if (loops.isEmpty())
+            throw new Unsupported();
+        mv.visitJumpInsn(GOTO, loops.get(loops.size() - 1).next);
+    }
+
+    @Override
+    public Object visitAssignExpr(Expr.Assign expr) {
+        expr.getValue().accept(this);
+        int depth = expr.getDepth();
+        if (depth == -1) {
+            mv.visitVarInsn(ALOAD, INTERPRETER);
+            constant(expr.getName(), Token.class);
+            runtime("assignGlobal", "(Ljava/lang/Object;L" + INTERPRETER_TYPE + ";L" + TOKEN_TYPE + ";)Ljava/lang/Object;");
+        } else if (depth < scopes.size()) {
+            mv.visitInsn(DUP);
+            mv.visitVarInsn(ASTORE, scopes.get(scopes.size() - 1 - depth) + expr.getSlot());
+        } else {
+            mv.visitVarInsn(ALOAD, CLOSURE);
+            push(depth - scopes.size());
+            push(expr.getSlot());
+            runtime("assignAt", "(Ljava/lang/Object;L" + ENVIRONMENT_TYPE + ";II)Ljava/lang/Object;");
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitBinaryExpr(Expr.Binary expr) {
+        if (expr.isArithmetic()) {
+            number(expr, expr.getOperator());
+            boxDouble();
+            return null;
+        }
+        switch (expr.getOperator().getType()) {
+            case Plus:
+                operation(expr, "add");
+                return null;
+            case Minus:
+                operation(expr, "subtract");
+                return null;
+            case Multiply:
+                operation(expr, "multiply");
+                return null;
+            case Divide:
+                operation(expr, "divide");
+                return null;
+            case Modulo:
+                operation(expr, "modulo");
+                return null;
+            case Exponent:
+                operation(expr, "power");
+                return null;
+            case BitwiseAnd:
+                operation(expr, "bitwiseAnd");
+                return null;
+            case BitwiseOr:
+                operation(expr, "bitwiseOr");
+                return null;
+            case LeftShift:
+                operation(expr, "leftShift");
+                return null;
+            case RightShift:
+                operation(expr, "rightShift");
+                return null;
+            case And:
+            case Or:
+            case Equal:
+            case NotEqual:
+            case GreaterThan:
+            case GreaterThanOrEqual:
+            case LessThan:
+            case LessThanOrEqual:
+                condition(expr);
+                boxBoolean();
+                return null;
+            default:
+                throw new Unsupported();
+        }
+    }
+
+    @Override
+    public Object visitCallExpr(Expr.Call expr) {
+        if (expr.getCallee() instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.getCallee();
+            get.getObject().accept(this);
+            constant(get.getName(), Token.class);
+            runtime("receiver", "(Ljava/lang/Object;L" + TOKEN_TYPE + ";)Ljava/lang/Object;");
+            mv.visitInsn(DUP);
+            constant(get, Expr.Get.class);
+            mv.visitVarInsn(ALOAD, INTERPRETER);
+            runtime("lookup", "(Ljava/lang/Object;Lcom/example/ast/Expr$Get;L" + INTERPRETER_TYPE
+                    + ";)Ljava/lang/Object;");
+            arguments(expr.getArguments());
+            mv.visitVarInsn(ALOAD, INTERPRETER);
+            constant(expr.getParen(), Token.class);
+            runtime("invoke", "(Ljava/lang/Object;Ljava/lang/Object;[Ljava/lang/Object;L"
+                    + INTERPRETER_TYPE + ";L" + TOKEN_TYPE + ";)Ljava/lang/Object;");
+            return null;
+        }
+        expr.getCallee().accept(this);
+        arguments(expr.getArguments());
+        mv.visitVarInsn(ALOAD, INTERPRETER);
+        constant(expr.getParen(), Token.class);
+        runtime("call", "(Ljava/lang/Object;[Ljava/lang/Object;L" + INTERPRETER_TYPE + ";L" + TOKEN_TYPE
+                + ";)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Object visitGetExpr(Expr.Get expr) {
+        expr.getObject().accept(this);
+        constant(expr, Expr.Get.class);
+        mv.visitVarInsn(ALOAD, INTERPRETER);
+        runtime("get", "(Ljava/lang/Object;Lcom/example/ast/Expr$Get;L" + INTERPRETER_TYPE + ";)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Object visitSetExpr(Expr.Set expr) {
+        expr.getObject().accept(this);
+        constant(expr.getName(), Token.class);
+        mv.visitLdcInsn("Only instances have fields");
+        runtime("instance", "(Ljava/lang/Object;L" + TOKEN_TYPE + ";Ljava/lang/String;)L" + INSTANCE_TYPE + ";");
+        expr.getValue().accept(this);
+        constant(expr, Expr.Set.class);
+        runtime("set", "(L" + INSTANCE_TYPE + ";Ljava/lang/Object;Lcom/example/ast/Expr$Set;)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Object visitGetIndexExpr(Expr.GetIndex expr) {
+        expr.getObject().accept(this);
+        expr.getIndex().accept(this);
+        constant(expr.getOperator(), Token.class);
+        runtime("getIndex", "(Ljava/lang/Object;Ljava/lang/Object;L" + TOKEN_TYPE + ";)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Object visitSetIndexExpr(Expr.SetIndex expr) {
+        expr.getObject().accept(this);
+        expr.getIndex().accept(this);
+        expr.getValue().accept(this);
+        constant(expr.getOperator(), Token.class);
+        runtime("setIndex", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;L" + TOKEN_TYPE
+                + ";)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Object visitCompoundSetIndexExpr(Expr.CompoundSetIndex expr) {
+        expr.getObject().accept(this);
+        expr.getIndex().accept(this);
+        // keeps the object and the index for the store
+        mv.visitInsn(DUP2);
+        constant(expr.getOperator(), Token.class);
+        runtime("getIndex", "(Ljava/lang/Object;Ljava/lang/Object;L" + TOKEN_TYPE + ";)Ljava/lang/Object;");
+        expr.getValue().accept(this);
+        constant(expr.getOperation(), Token.class);
+        runtime("binary", "(Ljava/lang/Object;Ljava/lang/Object;L" + TOKEN_TYPE + ";)Ljava/lang/Object;");
+        constant(expr.getOperator(), Token.class);
+        runtime("setIndex", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;L" + TOKEN_TYPE
+                + ";)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Object visitGroupingExpr(Expr.Grouping expr) {
+        return expr.getExpression().accept(this);
+    }
+
+    @Override
+    public Object visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.getValue();
+        if (value == null) {
+            mv.visitInsn(ACONST_NULL);
+        } else if (value instanceof Boolean) {
+            mv.visitFieldInsn(GETSTATIC, "java/lang/Boolean", (Boolean) value ? "TRUE" : "FALSE",
+                    "Ljava/lang/Boolean;");
+        } else if (value instanceof String) {
+            mv.visitLdcInsn(value);
+        } else {
+            constant(value, value.getClass());
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Object visitThisExpr(Expr.This expr) {
+        load(expr, expr.getName());
+        return null;
+    }
+
+    @Override
+    public Object visitUnaryExpr(Expr.Unary expr) {
+        switch (expr.getOperator().getType()) {
+            case Minus:
+                expr.getRight().accept(this);
+                constant(expr.getOperator(), Token.class);
+                arithmetic("negate", "(Ljava/lang/Object;L" + TOKEN_TYPE + ";)Ljava/lang/Object;");
+                return null;
+            case Not:
+                condition(expr);
+                boxBoolean();
+                return null;
+            default:
+                throw new Unsupported();
+        }
+    }
+
+    @Override
+    public Object visitVariableExpr(Expr.Variable expr) {
+        load(expr, expr.getName());
+        return null;
+    }
+
+    @Override
+    public Object visitArrayExpr(Expr.Array expr) {
+        mv.visitTypeInsn(NEW, LIST_TYPE);
+        mv.visitInsn(DUP);
+        if (expr.getConstant() != null) {
+            constant(expr.getConstant(), List.class);
+            mv.visitMethodInsn(INVOKESPECIAL, LIST_TYPE, "<init>", "(Ljava/util/Collection;)V", false);
+            return null;
+        }
+        push(expr.getValues().size());
+        mv.visitMethodInsn(INVOKESPECIAL, LIST_TYPE, "<init>", "(I)V", false);
+        for (Expr value : expr.getValues()) {
+            mv.visitInsn(DUP);
+            value.accept(this);
+            mv.visitMethodInsn(INVOKEVIRTUAL, LIST_TYPE, "add", "(Ljava/lang/Object;)Z", false);
+            mv.visitInsn(POP);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitMapExpr(Expr.Map expr) {
+        mv.visitTypeInsn(NEW, MAP_TYPE);
+        mv.visitInsn(DUP);
+        if (expr.getConstant() != null) {
+            constant(expr.getConstant(), Map.class);
+            mv.visitMethodInsn(INVOKESPECIAL, MAP_TYPE, "<init>", "(Ljava/util/Map;)V", false);
+            return null;
+        }
+        push(expr.getValues().size());
+        mv.visitMethodInsn(INVOKESPECIAL, MAP_TYPE, "<init>", "(I)V", false);
+        for (Map.Entry<Expr, Expr> entry : expr.getValues().entrySet()) {
+            mv.visitInsn(DUP);
+            entry.getKey().accept(this);
+            entry.getValue().accept(this);
+            mv.visitMethodInsn(INVOKEVIRTUAL, MAP_TYPE, "store", "(Ljava/lang/Object;Ljava/lang/Object;)V", false);
+        }
+        return null;
+    }
+}
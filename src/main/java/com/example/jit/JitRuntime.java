@@ -0,0 +1,110 @@
+package com.example.jit;
+
+import com.example.ast.Expr;
+import com.example.ast.Stmt;
+import com.example.environment.Environment;
+import com.example.environment.RuntimeError;
+import com.example.interpreter.CustomFunction;
+import com.example.interpreter.CustomInstance;
+import com.example.interpreter.Interpreter;
+import com.example.interpreter.Module;
+import com.example.token.Token;
+
+/**
+ * Operations called from compiled code. Each one has the same semantics as
+ * the matching visit method of the {@link Interpreter}, on values that the
+ * compiled code has already evaluated.
+ */
+public final class JitRuntime {
+    private JitRuntime() {
+    }
+
+    public static Object getGlobal(Interpreter interpreter, Token name) {
+        return interpreter.getGlobals().get(name);
+    }
+
+    public static Object assignGlobal(Object value, Interpreter interpreter, Token name) {
+        interpreter.getGlobals().assign(name, value);
+        return value;
+    }
+
+    public static Object assignAt(Object value, Environment environment, int distance, int slot) {
+        environment.assignAt(distance, slot, value);
+        return value;
+    }
+
+    public static Object call(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+        return interpreter.call(callee, arguments, paren);
+    }
+
+    public static Object tailCall(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+        return interpreter.tailCall(callee, arguments, paren);
+    }
+
+    public static Object tailInvoke(Object receiver, Object property, Object[] arguments,
+            Interpreter interpreter, Token paren) {
+        return interpreter.tailInvoke(receiver, property, arguments, paren);
+    }
+
+    /**
+     * Returns the closure of the callee when it was created from the given
+     * declaration, so a compiled function can turn a tail call to itself
+     * into a jump, or null when it is anything else.
+     */
+    public static Environment selfClosure(Object callee, Stmt.Function declaration) {
+        if (callee instanceof CustomFunction && ((CustomFunction) callee).getDeclaration() == declaration)
+            return ((CustomFunction) callee).getClosure();
+        return null;
+    }
+
+    public static CustomInstance instance(Object object, Token name, String message) {
+        if (object instanceof CustomInstance)
+            return (CustomInstance) object;
+        throw new RuntimeError(message, name);
+    }
+
+    /**
+     * Checks the object a property is called on, which is an instance or a
+     * module.
+     */
+    public static Object receiver(Object object, Token name) {
+        if (object instanceof CustomInstance || object instanceof Module)
+            return object;
+        throw new RuntimeError("Only instances have properties", name);
+    }
+
+    public static Object lookup(Object receiver, Expr.Get get, Interpreter interpreter) {
+        if (receiver instanceof Module)
+            return ((Module) receiver).get(get.getName(), interpreter);
+        return ((CustomInstance) receiver).lookup(get.getName(), get.getCache());
+    }
+
+    public static Object invoke(Object receiver, Object property, Object[] arguments,
+            Interpreter interpreter, Token paren) {
+        return interpreter.invoke(receiver, property, arguments, paren);
+    }
+
+    public static Object get(Object object, Expr.Get get, Interpreter interpreter) {
+        if (object instanceof Module)
+            return ((Module) object).get(get.getName(), interpreter);
+        return instance(object, get.getName(), "Only instances have properties")
+                .get(get.getName(), get.getCache());
+    }
+
+    public static Object set(CustomInstance instance, Object value, Expr.Set set) {
+        instance.set(set.getName(), value, set.getCache());
+        return value;
+    }
+
+    public static Object getIndex(Object object, Object index, Token operator) {
+        return Interpreter.getIndex(object, index, operator);
+    }
+
+    public static Object setIndex(Object object, Object index, Object value, Token operator) {
+        return Interpreter.setIndex(object, index, value, operator);
+    }
+
+    public static Object binary(Object left, Object right, Token operator) {
+        return Interpreter.binary(operator, left, right);
+    }
+}
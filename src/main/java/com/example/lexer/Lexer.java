@@ -1,42 +1,90 @@
 package com.example.lexer;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import com.example.App;
+import com.example.token.Symbol;
+import com.example.token.SymbolTable;
 import com.example.token.Token;
 import com.example.token.TokenType;
 
+/**
+ * Turns source text into tokens. The text is read from its source a block
+ * at a time into a buffer that only keeps the token being scanned, so a
+ * script of any size is lexed in constant memory; the buffer only grows for
+ * a single token longer than it. Positions in the buffer are relative to
+ * its first character and move whenever it is refilled.
+ */
 public class Lexer {
-    private char[] input;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Readable source;
+    private char[] buffer = new char[BUFFER_SIZE];
+    private int limit = 0;
+    private boolean exhausted = false;
     private int line = 1;
+    // where the current line starts, which is negative once the start of
+    // the line has been dropped from the buffer
     private int lineStart = 0;
+    private int start = 0;
     private int pos = 0;
 
-    private static HashMap<String, TokenType> keywords = new HashMap<String, TokenType>();
     static {
-        keywords.put("fn", TokenType.Function);
-        keywords.put("let", TokenType.Let);
-        keywords.put("if", TokenType.If);
-        keywords.put("else", TokenType.Else);
-        keywords.put("return", TokenType.Return);
-        keywords.put("while", TokenType.While);
-        keywords.put("for", TokenType.For);
-        keywords.put("class", TokenType.Class);
-        keywords.put("true", TokenType.True);
-        keywords.put("false", TokenType.False);
-        keywords.put("null", TokenType.Null);
-        keywords.put("this", TokenType.This);
-        keywords.put("super", TokenType.Super);
-        keywords.put("break", TokenType.Break);
-        keywords.put("continue", TokenType.Continue);
+        SymbolTable.reserve("fn", TokenType.Function);
+        SymbolTable.reserve("let", TokenType.Let);
+        SymbolTable.reserve("if", TokenType.If);
+        SymbolTable.reserve("else", TokenType.Else);
+        SymbolTable.reserve("return", TokenType.Return);
+        SymbolTable.reserve("while", TokenType.While);
+        SymbolTable.reserve("for", TokenType.For);
+        SymbolTable.reserve("class", TokenType.Class);
+        SymbolTable.reserve("import", TokenType.Import);
+        SymbolTable.reserve("true", TokenType.True);
+        SymbolTable.reserve("false", TokenType.False);
+        SymbolTable.reserve("null", TokenType.Null);
+        SymbolTable.reserve("this", TokenType.This);
+        SymbolTable.reserve("super", TokenType.Super);
+        SymbolTable.reserve("break", TokenType.Break);
+        SymbolTable.reserve("continue", TokenType.Continue);
     }
 
     public Lexer(String input, String filename) {
-        this.input = input.toCharArray();
+        this(input);
+    }
+
+    public Lexer(CharSequence input) {
+        this.source = CharBuffer.wrap(input);
+    }
+
+    public Lexer(Reader reader) {
+        this.source = reader;
     }
 
-    public Lexer(String input) {
-        this(input, "<stdin>");
+    /**
+     * Lexes UTF-8 text, typically a memory mapped file, decoding it as the
+     * tokens are read instead of up front.
+     */
+    public Lexer(ByteBuffer utf8) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.source = target -> {
+            if (!utf8.hasRemaining())
+                return -1;
+            int before = target.position();
+            decoder.decode(utf8, target, true);
+            if (!utf8.hasRemaining())
+                decoder.flush(target);
+            return target.position() - before;
+        };
     }
 
     public Token nextToken() {
@@ -52,6 +100,7 @@ public class Lexer {
 
     public Token next() throws LexerError {
         TokenType type = null;
+        start = pos;
         char c = advance();
         int col = getColumn();
         switch (c) {
@@ -160,27 +209,62 @@ public class Lexer {
         return new Token(type, line, col);
     }
 
+    /**
+     * Returns the line being lexed, as far as it is still in the buffer.
+     */
     public String getCurrentLine() {
-        int start = lineStart;
+        int from = Math.max(lineStart, 0);
         int end = pos;
-        while (end < input.length && input[end] != '\n')
+        while (end < limit && buffer[end] != '\n')
             end++;
-        return new String(input, start, end - start);
+        return new String(buffer, from, end - from);
     }
 
     private boolean isEof() {
-        return pos >= input.length;
+        return pos >= limit && !fill();
+    }
+
+    /**
+     * Reads the next block of the source, dropping what comes before the
+     * current token. Returns false once the source is exhausted.
+     */
+    private boolean fill() {
+        if (exhausted)
+            return false;
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            limit -= start;
+            pos -= start;
+            lineStart -= start;
+            start = 0;
+        }
+        if (buffer.length - limit < 2)
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        try {
+            int read;
+            do {
+                read = source.read(CharBuffer.wrap(buffer, limit, buffer.length - limit));
+            } while (read == 0);
+            if (read < 0) {
+                exhausted = true;
+                return false;
+            }
+            limit += read;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     private char peek() {
-        return isEof() ? 0 : input[pos];
+        return isEof() ? 0 : buffer[pos];
     }
 
     private Character advance() {
         if (isEof()) {
             return 0;
         }
-        char c = input[pos++];
+        char c = buffer[pos++];
         if (c == '\n') {
             line++;
             lineStart = pos;
@@ -197,8 +281,10 @@ public class Lexer {
     }
 
     private void removeWhitespace() {
-        while (isWhitespace(peek()))
+        while (isWhitespace(peek())) {
+            start = pos;
             advance();
+        }
     }
 
     private boolean isWhitespace(char c) {
@@ -227,19 +313,17 @@ public class Lexer {
 
     private Token identifier() {
         int col = getColumn();
-        int start = pos - 1;
         while (isAlphaNumeric(peek()))
             advance();
-        String text = new String(input, start, pos - start);
-        TokenType type = keywords.get(text);
-        if (type == null)
-            type = TokenType.Identifier;
-        return new Token(type, line, col, text);
+        Symbol symbol = SymbolTable.intern(buffer, start, pos - start);
+        return new Token(symbol.getType(), line, col, symbol);
     }
 
     private void removeComment() {
-        while (peek() != '\n' && !isEof())
+        while (peek() != '\n' && !isEof()) {
+            start = pos;
             advance();
+        }
     }
 
     private void removeMultilineComment() throws LexerError {
@@ -250,12 +334,12 @@ public class Lexer {
             }
             if (isEof())
                 throw new LexerError("Unterminated multiline comment", line, pos - lineStart, getCurrentLine());
+            start = pos;
             advance();
         }
     }
 
     private Token multiLineString() throws LexerError {
-        int start = pos - 1;
         int line = this.line;
         int col = getColumn();
         while (peek() != '"' && !isEof()) {
@@ -268,13 +352,12 @@ public class Lexer {
         }
         if (isEof())
             throw new LexerError("Unterminated string", line, pos - start, getCurrentLine());
-        String sb = new String(input, start + 1, pos - start - 1);
+        String sb = new String(buffer, start + 1, pos - start - 1);
         advance();
         return new Token(TokenType.String, line, col, sb.toString());
     }
 
     private Token string() throws LexerError {
-        int start = pos - 1;
         int line = this.line;
         int col = getColumn();
         while (peek() != '\'' && !isEof()) {
@@ -289,14 +372,13 @@ public class Lexer {
         if (isEof())
             throw new LexerError("Unterminated string", line, pos - start, getCurrentLine());
 
-        String str = new String(input, start + 1, pos - start - 1);
+        String str = new String(buffer, start + 1, pos - start - 1);
         advance();
         return new Token(TokenType.String, line, col, str);
     }
 
     private Token number() throws LexerError {
         int col = getColumn();
-        int start = pos - 1;
         while (isAlphaNumeric(peek())) {
             advance();
         }
@@ -306,7 +388,12 @@ public class Lexer {
                 advance();
             }
         }
-        String text = new String(input, start, pos - start);
+        String text = new String(buffer, start, pos - start);
+        try {
+            return new Token(TokenType.Number, line, col, Long.parseLong(text));
+        } catch (NumberFormatException e) {
+            // a fraction, an exponent or an integer too large for a long
+        }
         try {
             Double f = Double.parseDouble(text);
             return new Token(TokenType.Number, line, col, f);
@@ -0,0 +1,399 @@
+package com.example.optimizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.example.ast.Expr;
+import com.example.ast.ExprVisitor;
+import com.example.ast.Program;
+import com.example.ast.Stmt;
+import com.example.ast.StmtVisitor;
+import com.example.interpreter.Arithmetic;
+import com.example.interpreter.Interpreter;
+import com.example.interpreter.ScriptList;
+import com.example.interpreter.ScriptMap;
+import com.example.token.TokenType;
+
+/**
+ * Rewrites the program before it runs. Constant sub-expressions are folded
+ * into literals, an if or while whose condition is a constant keeps only
+ * the code that can run, statements after a return, break or continue are
+ * dropped, and array and map literals made of constants are built once so
+ * an evaluation only has to copy them.
+ *
+ * Only operations that cannot fail are folded; anything that would raise a
+ * runtime error is left in place so the engine reports it where it happens.
+ */
+public class Optimizer implements ExprVisitor, StmtVisitor {
+    private static final Object NOT_CONSTANT = new Object();
+
+    private List<Stmt> statements;
+
+    public Program optimize(Program program) {
+        return new Program(optimize(program.getStmts()));
+    }
+
+    private List<Stmt> optimize(List<Stmt> stmts) {
+        List<Stmt> enclosing = statements;
+        statements = new ArrayList<>();
+        try {
+            for (Stmt stmt : stmts) {
+                stmt.accept(this);
+                if (!statements.isEmpty() && terminates(statements.get(statements.size() - 1)))
+                    break;
+            }
+            return statements;
+        } finally {
+            statements = enclosing;
+        }
+    }
+
+    /**
+     * Optimizes the branch of an if or the body of a loop, which has to stay
+     * a single statement.
+     */
+    private Stmt optimizeBranch(Stmt stmt) {
+        List<Stmt> result = optimize(Collections.singletonList(stmt));
+        if (result.isEmpty())
+            return new Stmt.Block(result);
+        return result.get(0);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr == null ? null : (Expr) expr.accept(this);
+    }
+
+    private List<Expr> optimizeAll(List<Expr> exprs) {
+        List<Expr> result = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs)
+            result.add(optimize(expr));
+        return result;
+    }
+
+    private static boolean terminates(Stmt stmt) {
+        if (stmt instanceof Stmt.Return || stmt instanceof Stmt.Break || stmt instanceof Stmt.Continue)
+            return true;
+        if (stmt instanceof Stmt.Block) {
+            List<Stmt> stmts = ((Stmt.Block) stmt).getStmts();
+            return !stmts.isEmpty() && terminates(stmts.get(stmts.size() - 1));
+        }
+        if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            return ifStmt.getElseBranch() != null
+                    && terminates(ifStmt.getThenBranch())
+                    && terminates(ifStmt.getElseBranch());
+        }
+        return false;
+    }
+
+    private static boolean isConstant(Expr expr) {
+        return expr instanceof Expr.Literal;
+    }
+
+    private static Object valueOf(Expr expr) {
+        return ((Expr.Literal) expr).getValue();
+    }
+
+    /**
+     * Evaluates the operator the way the interpreter does, or returns
+     * NOT_CONSTANT when the operands would make it fail.
+     */
+    private static Object fold(TokenType type, Object left, Object right) {
+        switch (type) {
+            case And:
+                return Interpreter.bool(left) && Interpreter.bool(right);
+            case Or:
+                return Interpreter.bool(left) || Interpreter.bool(right);
+            case Equal:
+                return Interpreter.isEqual(left, right);
+            case NotEqual:
+                return !Interpreter.isEqual(left, right);
+            default:
+                break;
+        }
+        if (left instanceof Long && right instanceof Long) {
+            switch (type) {
+                case BitwiseAnd:
+                    return Arithmetic.bitwiseAnd(left, right, null);
+                case BitwiseOr:
+                    return Arithmetic.bitwiseOr(left, right, null);
+                case LeftShift:
+                    return Arithmetic.leftShift(left, right, null);
+                case RightShift:
+                    return Arithmetic.rightShift(left, right, null);
+                default:
+                    break;
+            }
+        }
+        if (Arithmetic.isNumber(left) && Arithmetic.isNumber(right)) {
+            switch (type) {
+                case Plus:
+                    return Arithmetic.add(left, right, null);
+                case Minus:
+                    return Arithmetic.subtract(left, right, null);
+                case Multiply:
+                    return Arithmetic.multiply(left, right, null);
+                case Divide:
+                    return Arithmetic.divide(left, right, null);
+                case Modulo:
+                    return Arithmetic.modulo(left, right, null);
+                case Exponent:
+                    return Arithmetic.power(left, right, null);
+                case GreaterThan:
+                    return Arithmetic.greaterThan(left, right, null);
+                case GreaterThanOrEqual:
+                    return Arithmetic.greaterEqual(left, right, null);
+                case LessThan:
+                    return Arithmetic.lessThan(left, right, null);
+                case LessThanOrEqual:
+                    return Arithmetic.lessEqual(left, right, null);
+                default:
+                    return NOT_CONSTANT;
+            }
+        }
+        if (left instanceof String && right instanceof String) {
+            String l = (String) left;
+            String r = (String) right;
+            switch (type) {
+                case Plus:
+                    return l + r;
+                case GreaterThan:
+                    return l.compareTo(r) > 0;
+                case GreaterThanOrEqual:
+                    return l.compareTo(r) >= 0;
+                case LessThan:
+                    return l.compareTo(r) < 0;
+                case LessThanOrEqual:
+                    return l.compareTo(r) <= 0;
+                default:
+                    return NOT_CONSTANT;
+            }
+        }
+        return NOT_CONSTANT;
+    }
+
+    @Override
+    public void visitBlockStmt(Stmt.Block stmt) {
+        statements.add(new Stmt.Block(optimize(stmt.getStmts())));
+    }
+
+    @Override
+    public void visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>();
+        for (Stmt.Function method : stmt.getMethods())
+            methods.add(function(method));
+        statements.add(new Stmt.Class(stmt.getName(), optimize(stmt.getSuperclass()), methods));
+    }
+
+    @Override
+    public void visitExprStmt(Stmt.ExprStmt stmt) {
+        statements.add(new Stmt.ExprStmt(optimize(stmt.getExpression())));
+    }
+
+    @Override
+    public void visitFunctionStmt(Stmt.Function stmt) {
+        statements.add(function(stmt));
+    }
+
+    private Stmt.Function function(Stmt.Function stmt) {
+        return new Stmt.Function(stmt.getName(), stmt.getParams(),
+                new Stmt.Block(optimize(stmt.getBody().getStmts())));
+    }
+
+    @Override
+    public void visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.getCondition());
+        if (isConstant(condition)) {
+            Stmt branch = Interpreter.bool(valueOf(condition)) ? stmt.getThenBranch() : stmt.getElseBranch();
+            if (branch != null)
+                branch.accept(this);
+            return;
+        }
+        Stmt elseBranch = null;
+        if (stmt.getElseBranch() != null)
+            elseBranch = optimizeBranch(stmt.getElseBranch());
+        statements.add(new Stmt.If(condition, optimizeBranch(stmt.getThenBranch()), elseBranch));
+    }
+
+    @Override
+    public void visitReturnStmt(Stmt.Return stmt) {
+        statements.add(new Stmt.Return(stmt.getKeyword(), optimize(stmt.getValue())));
+    }
+
+    @Override
+    public void visitLetStmt(Stmt.Let stmt) {
+        statements.add(new Stmt.Let(stmt.getName(), optimize(stmt.getInitializer())));
+    }
+
+    @Override
+    public void visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.getCondition());
+        if (isConstant(condition) && !Interpreter.bool(valueOf(condition)))
+            return;
+        statements.add(new Stmt.While(condition, optimizeBranch(stmt.getBody())));
+    }
+
+    @Override
+    public void visitForStmt(Stmt.For stmt) {
+        Stmt initializer = null;
+        if (stmt.getInitializer() != null)
+            initializer = optimizeBranch(stmt.getInitializer());
+        Expr condition = optimize(stmt.getCondition());
+        if (isConstant(condition) && !Interpreter.bool(valueOf(condition))) {
+            // the initializer still runs, in a scope of its own
+            if (initializer != null)
+                statements.add(new Stmt.Block(Collections.singletonList(initializer)));
+            return;
+        }
+        statements.add(new Stmt.For(initializer, condition, optimize(stmt.getIncrement()),
+                optimizeBranch(stmt.getBody())));
+    }
+
+    @Override
+    public void visitImportStmt(Stmt.Import stmt) {
+        statements.add(stmt);
+    }
+
+    @Override
+    public void visitBreakStmt(Stmt.Break stmt) {
+        statements.add(stmt);
+    }
+
+    @Override
+    public void visitContinueStmt(Stmt.Continue stmt) {
+        statements.add(stmt);
+    }
+
+    @Override
+    public Object visitAssignExpr(Expr.Assign expr) {
+        return new Expr.Assign(expr.getName(), optimize(expr.getValue()));
+    }
+
+    @Override
+    public Object visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.getLeft());
+        Expr right = optimize(expr.getRight());
+        if (isConstant(left) && isConstant(right)) {
+            Object value = fold(expr.getOperator().getType(), valueOf(left), valueOf(right));
+            if (value != NOT_CONSTANT)
+                return new Expr.Literal(value);
+        }
+        return new Expr.Binary(left, expr.getOperator(), right);
+    }
+
+    @Override
+    public Object visitCallExpr(Expr.Call expr) {
+        return new Expr.Call(optimize(expr.getCallee()), expr.getParen(), optimizeAll(expr.getArguments()));
+    }
+
+    @Override
+    public Object visitGetExpr(Expr.Get expr) {
+        return new Expr.Get(optimize(expr.getObject()), expr.getName(), expr.getOperator());
+    }
+
+    @Override
+    public Object visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = optimize(expr.getExpression());
+        if (isConstant(expression))
+            return expression;
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Object visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Object visitSetExpr(Expr.Set expr) {
+        return new Expr.Set(optimize(expr.getObject()), expr.getName(), optimize(expr.getValue()),
+                expr.getOperator());
+    }
+
+    @Override
+    public Object visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Object visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Object visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.getRight());
+        if (isConstant(right)) {
+            Object value = valueOf(right);
+            switch (expr.getOperator().getType()) {
+                case Minus:
+                    if (Arithmetic.isNumber(value))
+                        return new Expr.Literal(Arithmetic.negate(value, expr.getOperator()));
+                    break;
+                case Not:
+                    return new Expr.Literal(!Interpreter.bool(value));
+                default:
+                    break;
+            }
+        }
+        return new Expr.Unary(expr.getOperator(), right);
+    }
+
+    @Override
+    public Object visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Object visitArrayExpr(Expr.Array expr) {
+        List<Expr> values = optimizeAll(expr.getValues());
+        Expr.Array array = new Expr.Array(values);
+        if (values.stream().allMatch(Optimizer::isConstant)) {
+            List<Object> constant = new ScriptList(values.size());
+            for (Expr value : values)
+                constant.add(valueOf(value));
+            array.setConstant(constant);
+        }
+        return array;
+    }
+
+    @Override
+    public Object visitMapExpr(Expr.Map expr) {
+        Map<Expr, Expr> values = new LinkedHashMap<>();
+        boolean constant = true;
+        for (Map.Entry<Expr, Expr> entry : expr.getValues().entrySet()) {
+            Expr key = optimize(entry.getKey());
+            Expr value = optimize(entry.getValue());
+            values.put(key, value);
+            constant &= isConstant(key) && isConstant(value);
+        }
+        Expr.Map map = new Expr.Map(values);
+        if (constant) {
+            Map<Object, Object> entries = new ScriptMap(values.size());
+            for (Map.Entry<Expr, Expr> entry : values.entrySet())
+                entries.put(valueOf(entry.getKey()), valueOf(entry.getValue()));
+            map.setConstant(entries);
+        }
+        return map;
+    }
+
+    @Override
+    public Object visitGetIndexExpr(Expr.GetIndex expr) {
+        return new Expr.GetIndex(optimize(expr.getObject()), optimize(expr.getIndex()), expr.getOperator());
+    }
+
+    @Override
+    public Object visitSetIndexExpr(Expr.SetIndex expr) {
+        return new Expr.SetIndex(optimize(expr.getObject()), optimize(expr.getIndex()),
+                optimize(expr.getValue()), expr.getOperator());
+    }
+
+    @Override
+    public Object visitCompoundSetIndexExpr(Expr.CompoundSetIndex expr) {
+        return new Expr.CompoundSetIndex(optimize(expr.getObject()), optimize(expr.getIndex()),
+                expr.getOperation(), optimize(expr.getValue()), expr.getOperator());
+    }
+}
@@ -1,8 +1,10 @@
 package com.example.parser;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.example.App;
 import com.example.ast.Expr;
@@ -17,7 +19,46 @@ public class Parser {
     private Token peek = null;
     private final Lexer lexer;
 
-    private static final HashMap<TokenType, TokenType> assignToBinary = new HashMap<TokenType, TokenType>() {
+    // binding power of each binary operator, 0 for every other token
+    private static final int OR = 1;
+    private static final int AND = 2;
+    private static final int BITWISE_OR = 3;
+    private static final int BITWISE_AND = 4;
+    private static final int EQUALITY = 5;
+    private static final int COMPARISON = 6;
+    private static final int SHIFT = 7;
+    private static final int ADDITION = 8;
+    private static final int MULTIPLICATION = 9;
+    // a division binds tighter than the multiplication before it, so
+    // 3*1/3 is 3*(1/3)
+    private static final int DIVISION = 10;
+    private static final int UNARY = 11;
+    private static final int EXPONENT = 12;
+
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
+
+    static {
+        PRECEDENCE[TokenType.Or.ordinal()] = OR;
+        PRECEDENCE[TokenType.And.ordinal()] = AND;
+        PRECEDENCE[TokenType.BitwiseOr.ordinal()] = BITWISE_OR;
+        PRECEDENCE[TokenType.BitwiseAnd.ordinal()] = BITWISE_AND;
+        PRECEDENCE[TokenType.Equal.ordinal()] = EQUALITY;
+        PRECEDENCE[TokenType.NotEqual.ordinal()] = EQUALITY;
+        PRECEDENCE[TokenType.GreaterThan.ordinal()] = COMPARISON;
+        PRECEDENCE[TokenType.GreaterThanOrEqual.ordinal()] = COMPARISON;
+        PRECEDENCE[TokenType.LessThan.ordinal()] = COMPARISON;
+        PRECEDENCE[TokenType.LessThanOrEqual.ordinal()] = COMPARISON;
+        PRECEDENCE[TokenType.LeftShift.ordinal()] = SHIFT;
+        PRECEDENCE[TokenType.RightShift.ordinal()] = SHIFT;
+        PRECEDENCE[TokenType.Plus.ordinal()] = ADDITION;
+        PRECEDENCE[TokenType.Minus.ordinal()] = ADDITION;
+        PRECEDENCE[TokenType.Multiply.ordinal()] = MULTIPLICATION;
+        PRECEDENCE[TokenType.Modulo.ordinal()] = MULTIPLICATION;
+        PRECEDENCE[TokenType.Divide.ordinal()] = DIVISION;
+        PRECEDENCE[TokenType.Exponent.ordinal()] = EXPONENT;
+    }
+
+    private static final Map<TokenType, TokenType> assignToBinary = new EnumMap<TokenType, TokenType>(TokenType.class) {
         {
             put(TokenType.PlusAssign, TokenType.Plus);
             put(TokenType.MinusAssign, TokenType.Minus);
@@ -40,16 +81,26 @@ public class Parser {
 
     public Program getProgram() {
         List<Stmt> stmts = new ArrayList<Stmt>();
+        for (Stmt stmt = nextStatement(); stmt != null; stmt = nextStatement())
+            stmts.add(stmt);
+        return new Program(stmts);
+    }
+
+    /**
+     * Parses the next top-level statement, reporting and skipping any that
+     * do not parse, or returns null at the end of the input.
+     */
+    public Stmt nextStatement() {
         while (!isEof()) {
             try {
-                stmts.add(statement());
+                return statement();
             } catch (ParserError e) {
                 App.setHasError();
                 System.out.println(e.getMessage());
                 synchronize();
             }
         }
-        return new Program(stmts);
+        return null;
     }
 
     private Token shouldBe(TokenType tok, String message) throws ParserError {
@@ -78,6 +129,8 @@ public class Parser {
             return forStatement();
         else if (match(TokenType.Return))
             return returnStatement();
+        else if (match(TokenType.Import))
+            return importStatement();
         // else if (match(TokenType.LeftBrace))
         // return blockStatment();
         else if (match(TokenType.Break)) {
@@ -103,6 +156,21 @@ public class Parser {
         return new Stmt.Return(keyword, value);
     }
 
+    private Stmt.Import importStatement() throws ParserError {
+        Token keyword = current;
+        Token path = shouldBe(TokenType.String, "Expect module path after 'import'");
+        // 'as' is not reserved, so it stays usable as a name elsewhere
+        if (!match(TokenType.Identifier) || !"as".equals(current.getLiteral()))
+            throw new ParserError(
+                    "Expect 'as' after module path",
+                    current.getLine(),
+                    current.getCol(),
+                    lexer.getCurrentLine());
+        Token name = shouldBe(TokenType.Identifier, "Expect module name after 'as'");
+        shouldBe(TokenType.Semicolon, "Expect ';' after import");
+        return new Stmt.Import(keyword, path, name);
+    }
+
     private Stmt.Block blockStatment() throws ParserError {
         List<Stmt> stmts = new ArrayList<Stmt>();
         while (!isNextToken(TokenType.RightBrace) && !isEof()) {
@@ -199,18 +267,7 @@ public class Parser {
         }
         shouldBe(TokenType.RightParen, "Expect ')' after for clauses");
         Stmt body = (match(TokenType.LeftBrace)) ? blockStatment() : statement();
-        if (increment != null) {
-            body = new Stmt.Block(
-                    List.of(body, new Stmt.ExprStmt(increment)));
-        }
-        if (condition == null) {
-            condition = new Expr.Literal(true);
-        }
-        body = new Stmt.While(condition, body);
-        if (initializer != null) {
-            return new Stmt.Block(List.of(initializer, body));
-        }
-        return body;
+        return new Stmt.For(initializer, condition, increment, body);
     }
 
     private Stmt.Let letStatement() throws ParserError {
@@ -219,10 +276,7 @@ public class Parser {
         if (match(TokenType.Assign)) {
             expr = expression();
         }
-        if (match(TokenType.PlusAssign, TokenType.MinusAssign, TokenType.MultiplyAssign,
-                TokenType.DivideAssign, TokenType.ModuloAssign, TokenType.BitwiseAndAssign,
-                TokenType.BitwiseOrAssign, TokenType.ExponentAssign, TokenType.LeftShiftAssign,
-                TokenType.RightShiftAssign))
+        if (matchCompoundAssign())
             throw new ParserError(
                     String.format("Cannot use %s operator in let statement", current.getType()),
                     current.getLine(),
@@ -238,27 +292,21 @@ public class Parser {
     }
 
     private Expr assignment() throws ParserError {
-        Expr expr = or();
-        if (match(
-                TokenType.Assign,
-                TokenType.PlusAssign,
-                TokenType.MinusAssign,
-                TokenType.MultiplyAssign,
-                TokenType.DivideAssign,
-                TokenType.ModuloAssign,
-                TokenType.BitwiseAndAssign,
-                TokenType.BitwiseOrAssign,
-                TokenType.ExponentAssign,
-                TokenType.LeftShiftAssign,
-                TokenType.RightShiftAssign)) {
+        Expr expr = binary(OR);
+        if (match(TokenType.Assign) || matchCompoundAssign()) {
             Token op = current;
             Expr value = assignment();
             if (assignToBinary.containsKey(op.getType())) {
                 Token newOp = new Token(
                         assignToBinary.get(op.getType()),
                         op.getLine(),
-                        op.getCol(),
-                        null);
+                        op.getCol());
+                if (expr instanceof Expr.GetIndex) {
+                    // the object and the index must not be evaluated twice
+                    Expr.GetIndex get = (Expr.GetIndex) expr;
+                    return new Expr.CompoundSetIndex(get.getObject(), get.getIndex(), newOp, value,
+                            get.getOperator());
+                }
                 value = new Expr.Binary(
                         expr,
                         newOp,
@@ -271,6 +319,9 @@ public class Parser {
             } else if (expr instanceof Expr.Get) {
                 Expr.Get get = (Expr.Get) expr;
                 return new Expr.Set(get.getObject(), get.getName(), value, op);
+            } else if (expr instanceof Expr.GetIndex) {
+                Expr.GetIndex get = (Expr.GetIndex) expr;
+                return new Expr.SetIndex(get.getObject(), get.getIndex(), value, op);
             }
             throw new ParserError(
                     "Invalid assignment target",
@@ -281,117 +332,32 @@ public class Parser {
         return expr;
     }
 
-    private Expr or() throws ParserError {
-        Expr expr = and();
-        while (match(TokenType.Or)) {
-            Token operator = current;
-            Expr right = and();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr and() throws ParserError {
-        Expr expr = bitwiseOr();
-        while (match(TokenType.And)) {
-            Token operator = current;
-            Expr right = bitwiseOr();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr bitwiseOr() throws ParserError {
-        Expr expr = bitwiseAnd();
-        while (match(TokenType.Or)) {
-            Token operator = current;
-            Expr right = bitwiseAnd();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr bitwiseAnd() throws ParserError {
-        Expr expr = equality();
-        while (match(TokenType.And)) {
-            Token operator = current;
-            Expr right = equality();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr equality() throws ParserError {
-        Expr expr = comparision();
-        while (match(TokenType.Equal, TokenType.NotEqual)) {
-            Token operator = current;
-            Expr right = comparision();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr comparision() throws ParserError {
-        Expr expr = addition();
-        while (match(
-                TokenType.GreaterThan,
-                TokenType.GreaterThanOrEqual,
-                TokenType.LessThan,
-                TokenType.LessThanOrEqual)) {
-            Token operator = current;
-            Expr right = addition();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr addition() throws ParserError {
-        Expr expr = multiplication();
-        while (match(TokenType.Plus, TokenType.Minus)) {
-            Token operator = current;
-            Expr right = multiplication();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr multiplication() throws ParserError {
-        Expr expr = divide();
-        while (match(TokenType.Multiply, TokenType.Divide, TokenType.Modulo)) {
-            Token operator = current;
-            Expr right = divide();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    private Expr divide() throws ParserError {
+    /**
+     * Parses a chain of binary operators binding at least as tightly as
+     * the given precedence, climbing the table instead of descending one
+     * method per level. Every operator is left associative. The right
+     * operand of an exponent is a call or a primary, so it cannot start
+     * with a unary operator.
+     */
+    private Expr binary(int precedence) throws ParserError {
         Expr expr = unary();
-        while (match(TokenType.Divide)) {
-            Token operator = current;
-            Expr right = unary();
+        while (true) {
+            int next = PRECEDENCE[peek.getType().ordinal()];
+            if (next < precedence)
+                return expr;
+            Token operator = advance();
+            Expr right = (next == EXPONENT) ? call() : binary(next + 1);
             expr = new Expr.Binary(expr, operator, right);
         }
-        return expr;
     }
 
     private Expr unary() throws ParserError {
-        if (match(TokenType.Not, TokenType.Minus)) {
+        if (match(TokenType.Not) || match(TokenType.Minus)) {
             Token operator = current;
-            Expr right = unary();
+            Expr right = binary(UNARY);
             return new Expr.Unary(operator, right);
         }
-        return exponent();
-    }
-
-    private Expr exponent() throws ParserError {
-        Expr expr = call();
-        while (match(TokenType.Exponent)) {
-            Token operator = current;
-            Expr right = call();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+        return call();
     }
 
     private Expr call() throws ParserError {
@@ -425,7 +391,7 @@ public class Parser {
             return new Expr.Literal(true);
         else if (match(TokenType.Null))
             return new Expr.Literal(null);
-        else if (match(TokenType.Number, TokenType.String))
+        else if (match(TokenType.Number) || match(TokenType.String))
             return new Expr.Literal(current.getLiteral());
         else if (match(TokenType.Identifier))
             return new Expr.Variable(current);
@@ -471,7 +437,7 @@ public class Parser {
     }
 
     private Expr map() throws ParserError {
-        HashMap<Expr, Expr> map = new HashMap<>();
+        LinkedHashMap<Expr, Expr> map = new LinkedHashMap<>();
         if (!isNextToken(TokenType.RightBrace)) {
             do {
                 Expr key = expression();
@@ -500,16 +466,21 @@ public class Parser {
         return peek.getType() == t;
     }
 
-    boolean match(TokenType... tok) {
-        for (TokenType t : tok) {
-            if (isNextToken(t)) {
-                advance();
-                return true;
-            }
+    boolean match(TokenType tok) {
+        if (isNextToken(tok)) {
+            advance();
+            return true;
         }
         return false;
     }
 
+    private boolean matchCompoundAssign() {
+        if (isEof() || !assignToBinary.containsKey(peek.getType()))
+            return false;
+        advance();
+        return true;
+    }
+
     public void synchronize() {
         advance();
         while (!isEof()) {
@@ -524,6 +495,7 @@ public class Parser {
                 case If:
                 case While:
                 case Return:
+                case Import:
                     return;
             }
             advance();
@@ -0,0 +1,63 @@
+package com.example.token;
+
+/**
+ * An interned identifier. There is exactly one symbol per spelling, handed
+ * out by the {@link SymbolTable}, so symbols compare by identity and hash
+ * by a value computed once when they are created.
+ */
+public final class Symbol {
+    private final String name;
+    private final int id;
+    private final int hash;
+    private TokenType type = TokenType.Identifier;
+
+    Symbol(String name, int id, int hash) {
+        this.name = name;
+        this.id = id;
+        this.hash = hash;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Position of the symbol in the order symbols were interned, usable as
+     * an index into tables sized by {@link SymbolTable#size()}.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * The type of token the spelling lexes to: a keyword type for reserved
+     * words and {@code Identifier} for everything else.
+     */
+    public TokenType getType() {
+        return type;
+    }
+
+    void setType(TokenType type) {
+        this.type = type;
+    }
+
+    boolean matches(char[] chars, int start, int length) {
+        if (name.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != chars[start + i])
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
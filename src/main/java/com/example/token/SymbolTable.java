@@ -0,0 +1,73 @@
+package com.example.token;
+
+/**
+ * Interns identifier names into {@link Symbol symbols}. The table is shared
+ * by the whole process, so tokens lexed from different sources, such as
+ * successive REPL lines, agree on their symbols and runtime tables can key
+ * on them by identity.
+ *
+ * Lookups take a range of the lexer's input, so an identifier that has been
+ * seen before is resolved without allocating anything. The table uses open
+ * addressing with linear probing and doubles when it is half full.
+ */
+public final class SymbolTable {
+    private static Symbol[] table = new Symbol[256];
+    private static int size;
+
+    private SymbolTable() {
+    }
+
+    public static Symbol intern(String name) {
+        return intern(name.toCharArray(), 0, name.length());
+    }
+
+    public static synchronized Symbol intern(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++)
+            hash = 31 * hash + chars[start + i];
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        for (Symbol symbol = table[slot]; symbol != null; symbol = table[slot]) {
+            if (symbol.hashCode() == hash && symbol.matches(chars, start, length))
+                return symbol;
+            slot = (slot + 1) & mask;
+        }
+        Symbol symbol = new Symbol(new String(chars, start, length), size++, hash);
+        table[slot] = symbol;
+        if (size * 2 > table.length)
+            grow();
+        return symbol;
+    }
+
+    /**
+     * Marks a spelling as a reserved word that lexes to the given type.
+     */
+    public static void reserve(String name, TokenType type) {
+        intern(name).setType(type);
+    }
+
+    /**
+     * The number of symbols interned so far; every symbol id is below it.
+     */
+    public static synchronized int size() {
+        return size;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static void grow() {
+        Symbol[] old = table;
+        table = new Symbol[old.length * 2];
+        int mask = table.length - 1;
+        for (Symbol symbol : old) {
+            if (symbol == null)
+                continue;
+            int slot = spread(symbol.hashCode()) & mask;
+            while (table[slot] != null)
+                slot = (slot + 1) & mask;
+            table[slot] = symbol;
+        }
+    }
+}
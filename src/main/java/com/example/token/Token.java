@@ -12,6 +12,8 @@ public class Token {
     private int line;
     private int col;
     private Object literal;
+    @EqualsAndHashCode.Exclude
+    private Symbol symbol;
 
     public Token(TokenType type, int line, int col, Object literal) {
         this.type = type;
@@ -21,7 +23,16 @@ public class Token {
     }
 
     public Token(TokenType type, int line, int col) {
-        this(type, line, col, null);
+        this(type, line, col, (Object) null);
+    }
+
+    /**
+     * A token for an identifier or keyword. Its literal is the interned
+     * name, so every occurrence of an identifier shares one String.
+     */
+    public Token(TokenType type, int line, int col, Symbol symbol) {
+        this(type, line, col, (Object) symbol.getName());
+        this.symbol = symbol;
     }
 
     public String toString() {
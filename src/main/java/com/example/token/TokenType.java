@@ -33,6 +33,7 @@ public enum TokenType {
     While,
     For,
     Class,
+    Import,
     // Comparison operators
     Equal,
     NotEqual,
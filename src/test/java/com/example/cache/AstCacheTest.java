@@ -0,0 +1,161 @@
+package com.example.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import com.example.App;
+import com.example.ast.Program;
+import com.example.environment.Resolver;
+import com.example.interpreter.Interpreter;
+import com.example.lexer.Lexer;
+import com.example.optimizer.Optimizer;
+import com.example.parser.Parser;
+
+@RunWith(Parameterized.class)
+public class AstCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String input;
+    private Object expected;
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                { "let a = 10 * 20; a += 12;", 212L },
+                { "let a = 'Hello, ' + 'World!';", "Hello, World!" },
+                { "let a = -3 - 2 ^ 40 + 0.5;", -1099511627778.5 },
+                { "let a = 0; for (let i = 0; i < 10; i += 1) { if (i % 2 == 0) continue; a += i; }", 25L },
+                { "fn fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); } let a = fib(15);", 610L },
+                { "class A { name() { return 'A'; } } class B < A { } let b = B(); let a = b.name();", "A" },
+                { "let xs = [1, 2, 3]; let m = {'x': [4], 2: null}; let a = xs[2] + m['x'][0] + length(m);", 9L },
+                { "let xs = [1, 2]; let i = 1; xs[i - 1] *= 5; let a = xs[0] + xs[1];", 7L },
+                { "fn f(x) { print('f', x, [x], {x: x * 0.5}); return x; } let a = f(3) + f(4);", 7L },
+        });
+    }
+
+    public AstCacheTest(String input, Object expected) {
+        this.input = input;
+        this.expected = expected;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Program program = resolved();
+        AstCache cache = new AstCache(folder.getRoot().toPath());
+        String key = key();
+        cache.store(key, program);
+        Program loaded = cache.load(key);
+
+        assertNotNull(input, loaded);
+        assertTrue(loaded.isResolved());
+        assertEquals(input, program.toString(), loaded.toString());
+        assertEquals(input, expected, interpret(loaded, new ByteArrayOutputStream()));
+    }
+
+    /**
+     * A cached program runs on the interpreter exactly like the script parsed
+     * afresh, both in what it prints and in what it leaves behind.
+     */
+    @Test
+    public void testInterpreterMatchesFreshParse() throws Exception {
+        AstCache cache = new AstCache(folder.getRoot().toPath());
+        String key = key();
+        cache.store(key, resolved());
+        Program loaded = cache.load(key);
+        assertNotNull(input, loaded);
+
+        ByteArrayOutputStream freshOutput = new ByteArrayOutputStream();
+        Object fresh = interpret(resolved(), freshOutput);
+        ByteArrayOutputStream cachedOutput = new ByteArrayOutputStream();
+        Object cached = interpret(loaded, cachedOutput);
+
+        assertEquals(input, expected, fresh);
+        assertEquals(input, fresh, cached);
+        assertEquals(input, freshOutput.toString(), cachedOutput.toString());
+    }
+
+    /**
+     * A cache file that was cut short, damaged or written by another version
+     * is a miss rather than an error or a wrong program.
+     */
+    @Test
+    public void testDamagedFileIsMiss() throws Exception {
+        AstCache cache = new AstCache(folder.getRoot().toPath());
+        String key = key();
+        cache.store(key, resolved());
+        Path file = cache.file(key);
+        byte[] bytes = Files.readAllBytes(file);
+
+        for (int length = 0; length < bytes.length; length++) {
+            Files.write(file, Arrays.copyOf(bytes, length));
+            assertNull(input + " cut to " + length + " bytes", cache.load(key));
+        }
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length + 1));
+        assertNull(input + " with a trailing byte", cache.load(key));
+
+        byte[] oldVersion = bytes.clone();
+        ByteBuffer.wrap(oldVersion).putInt(4, AstCache.VERSION - 1);
+        Files.write(file, oldVersion);
+        assertNull(input + " of an older version", cache.load(key));
+
+        // the statement count right after the header claims far more
+        // statements than the file could hold
+        ByteBuffer hugeCount = ByteBuffer.allocate(bytes.length + 3);
+        hugeCount.put(bytes, 0, 8).put(new byte[] { (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f });
+        hugeCount.put(bytes, 9, bytes.length - 9);
+        Files.write(file, hugeCount.array());
+        assertNull(input + " with a corrupt count", cache.load(key));
+
+        Files.write(file, "not a cache file".getBytes(StandardCharsets.UTF_8));
+        assertNull(input + " overwritten", cache.load(key));
+
+        Files.write(file, bytes);
+        assertNotNull(input + " restored", cache.load(key));
+    }
+
+    private String key() {
+        return AstCache.key(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private Program resolved() {
+        Program program = new Optimizer().optimize(new Parser(new Lexer(input)).getProgram());
+        if (App.hasError()) {
+            fail("Parser has error");
+        }
+        new Resolver().resolve(program.getStmts());
+        program.setResolved(true);
+        return program;
+    }
+
+    private static Object interpret(Program program, ByteArrayOutputStream output) {
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(output));
+        try {
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(program);
+            return interpreter.getEnvironment().deleteAt(0, "a");
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+}
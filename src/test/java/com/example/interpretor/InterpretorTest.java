@@ -12,6 +12,7 @@ import org.junit.runners.Parameterized;
 
 import com.example.App;
 import com.example.ast.Program;
+import com.example.environment.RuntimeError;
 import com.example.interpreter.Interpreter;
 import com.example.lexer.Lexer;
 import com.example.parser.Parser;
@@ -24,13 +25,85 @@ public class InterpretorTest {
     @Parameterized.Parameters
     public static Collection<Object[]> data() {
         return Arrays.asList(new Object[][] {
-                { "let a = 10 * 20; a += 12;", 212.0 },
-                { "let a = (1+2*3);", 7.0 },
+                { "let a = 10 * 20; a += 12;", 212L },
+                { "let a = (1+2*3);", 7L },
+                { "let b = 4; let a = (b + 1) * -2 + b % 3 ^ 2;", -6.0 },
                 { "let a = 'Hello, ' + 'World!';", "Hello, World!" },
                 { "let a = \"Hello, \" + \"World!\";", "Hello, World!" },
                 { "let a = true;", true },
                 { "let a = bool(1) || false || bool(20);", true },
                 { "let a = 100>120;", false },
+                { "fn add(x, y) { let z = x + y; return z; } let a = add(1, 2);", 3L },
+                { "fn add(x, y) { return x + y; } add(1, 2); let a = add('a', 'b');", "ab" },
+                { "fn outer() { let b = 2; fn inner(c) { return b * c; } return inner(5); } let a = outer();", 10L },
+                { "class A { f() { return 1; } } class B < A { f() { return 2; } } fn g(o) { return o.f(); }"
+                        + " let a = g(A()) + g(B()) + g(A());", 4L },
+                { "class P { constructor() { this.x = 1; } } let p = P(); p.y = 2; p.x = 5; let q = P();"
+                        + " let a = p.x + p.y + q.x;", 8L },
+                { "let a = 0; if (true) { let b = 1; if (true) { let c = 2; a = b + c; } }", 3L },
+                { "fn f(n) { let s = 0; let i = 0; while (true) { i += 1; if (i > n) break; if (i % 2 == 0) continue;"
+                        + " s += i; } return s; } let a = 0; let k = 0; while (k < 1500) { a = f(k % 4); k += 1; }", 4L },
+                { "let base = 10; class P { constructor(x) { this.x = x; } get() { return this.x + base; } }"
+                        + " let a = 0; let k = 0; while (k < 1500) { let p = P(k); a = p.get(); k += 1; }", 1509L },
+                { "fn find(n) { let i = 0; while (true) { if (i == n) return i * 2; i += 1; } } let a = find(12000);", 24000L },
+                { "let a = 0; let i = 0; while (i < 20000) { i += 1; if (i % 2 == 0) continue; let d = i; a += d; }", 100000000L },
+                { "let a = 0; for (let i = 0; i < 10; i += 1) { if (i % 2 == 0) continue; let d = i; a += d; }", 25L },
+                { "let a = 0; for (let i = 0; i < 3; i += 1) { let j = i; fn f() { return j; } a += f(); }", 3L },
+                { "let xs = [1, 2, 3]; for (let i = 1; i < length(xs); i += 1) { xs[0] += xs[i]; } let a = xs[0];", 6L },
+                { "let n = 0; fn f() { n += 1; return 0; } let xs = [5]; xs[f()] += 2; let a = n * 10 + xs[0];", 17L },
+                { "let n = 0; let m = {'k': 'a'}; fn g() { n += 1; return m; } let b = (g())['k'] += 'b';"
+                        + " let a = b == 'ab' && m['k'] == 'ab' && n == 1;", true },
+                { "let n = 0; fn f(xs) { n += 1; return n % 3; } fn g(xs) { xs[f(xs)] += 2; }"
+                        + " let xs = [0, 0, 0]; let k = 0; while (k < 1500) { g(xs); k += 1; } let a = xs[0] + xs[1] + xs[2] + n;", 4500L },
+                { "fn count(n, acc) { if (n == 0) return acc; return count(n - 1, acc + 1); } let a = count(200000, 0);",
+                        200000L },
+                { "fn even(n) { if (n == 0) return true; return odd(n - 1); }"
+                        + " fn odd(n) { if (n == 0) return false; return even(n - 1); } let a = even(200001);", false },
+                { "class C { down(n) { if (n == 0) return 'done'; return this.down(n - 1); } }"
+                        + " let c = C(); let a = c.down(200000);", "done" },
+                { "let a = 7 / 2 + 1;", 4.5 },
+                { "let a = 6 & 3 | 1 << 4;", 18L },
+                { "let b = 9223372036854775807; let a = b + 1;", 9.223372036854775807E18 },
+                { "let xs = [1, 2, 3]; let a = xs[length(xs) - 1] == 3.0;", true },
+                { "fn f(n) { let s = 0; for (let i = 0; i < n; i += 1) { s += i * 0.5; } return s; }"
+                        + " let a = 0; let k = 0; while (k < 1500) { a = f(4); k += 1; }", 3.0 },
+                { "fn f() { return g() + length([1]); } fn g() { return 5; } let a = f();", 6L },
+                { "let s = ''; for (let i = 0; i < 100; i += 1) { s += 'ab'; } let t = s; s += 'c';"
+                        + " let m = {}; m[t] = 1; let a = length(s) + m[t] + length(t);", 402L },
+                { "let s = ''; for (let i = 0; i < 100; i += 1) { s += 'ab'; } let t = s; s += 'c';"
+                        + " let a = typeOf(s) == 'String' && s == t + 'c' && t + 'd' != s && t < s;", true },
+                { "class P { constructor(x, y) { let s = x + y; this.s = s; } add(n) { let t = this.s + n; return t; } }"
+                        + " fn f(x, y) { let z = x * y; let p = P(z, x); return p.add(y); }"
+                        + " let a = f(3, 4);", 19L },
+                { "let xs = [1.5, 2.5]; xs[0] = 1; let ys = [1, 2]; ys[1] = 'b';"
+                        + " let a = xs[0] + xs[1] + length(ys) + length(typeOf(xs));", 14.5 },
+                { "let m = {1: 'a', 1.0: 'b'}; let i = 0; while (i < 20) { m[i % 4] = i; i += 1; }"
+                        + " let a = m[1] + m[3] + length(m) + length(typeOf(m));", 47L },
+                { "let m = {2: 'two'}; m[-0.0] = 'zero'; m[0] = 'nil';"
+                        + " let a = m[4 / 2] == 'two' && m[0.0] == 'nil' && length(m) == 2;", true },
+                { "let a = [1] == [1.0] && {1: 1} == {1: 1.0} && {1.0: [2]} == {1: [2.0]} && [1] != [1.5];", true },
+                { "let m = {}; m[[1, 2]] = 5; m[{3: 4}] = 6; let a = m[[1.0, 2]] + m[{3.0: 4.0}];", 11L },
+                { "let p = 'abcdefghijabcdefghijabcdefghijabcdefghij'; let s = p + p; let lit = 'abcdefghijabcdefghijabcdefghijabcdefghijabcdefghijabcdefghijabcdefghijabcdefghij';"
+                        + " let a = [s] == [lit] && [lit] == [s] && [[1, s]] == [[1, lit]];", true },
+                { "let p = 'abcdefghijabcdefghijabcdefghijabcdefghij'; let s = p + p; let lit = 'abcdefghijabcdefghijabcdefghijabcdefghijabcdefghijabcdefghijabcdefghijabcdefghij';"
+                        + " let a = {'k': s} == {'k': lit} && {'k': lit} == {'k': s};", true },
+                { "let p = 'abcdefghijabcdefghijabcdefghijabcdefghij'; let s = p + p; let lit = 'abcdefghijabcdefghijabcdefghijabcdefghijabcdefghijabcdefghijabcdefghijabcdefghij';"
+                        + " let m = {}; m[[s]] = 5; m[{'k': lit}] = 6; let a = m[[lit]] + m[{'k': s}];", 11L },
+                { "import 'src/test/resources/modules/counter.lox' as c; c.next();"
+                        + " fn f() { return c.add(10); } let a = f() + c.count;", 22L },
+                { "import 'src/test/resources/modules/counter.lox' as c;"
+                        + " import 'src/test/resources/../resources/modules/counter.lox' as d;"
+                        + " c.next(); d.next(); let a = c.count;", 2L },
+                { "let xs = [1, 2, 3]; let a = xs[4294967297];", RuntimeError.class },
+                { "let xs = [1, 2, 3]; xs[4294967298] = 99; let a = xs[2];", RuntimeError.class },
+                { "let xs = [1, 2, 3]; let a = xs[3];", RuntimeError.class },
+                { "let xs = [1, 2, 3]; xs[3] = 4;", RuntimeError.class },
+                { "let xs = [1, 2, 3]; let a = xs[-0.5];", RuntimeError.class },
+                { "let xs = [1, 2, 3]; xs[-1] = 0;", RuntimeError.class },
+                { "let xs = [1, 2, 3]; let a = xs[0 / 0];", RuntimeError.class },
+                { "let xs = [1, 2, 3]; xs[1.5] = 7; let a = xs[1] + xs[2.9];", 10L },
+                { "let a = 0; while (a < 5000) { fn f() { if (a > 4000) break; } f(); a = a + 1; }", RuntimeError.class },
+                { "let a = 0; for (let i = 0; i < 3; i += 1) { fn f() { continue; } }", RuntimeError.class },
         });
     }
 
@@ -50,9 +123,15 @@ public class InterpretorTest {
         }
         try {
             interpreter.interpret(program);
+        } catch (RuntimeError e) {
+            if (expected == RuntimeError.class)
+                return;
+            fail(e.getMessage());
         } catch (Exception e) {
             fail(e.getMessage());
         }
+        if (expected == RuntimeError.class)
+            fail(input + " should raise a runtime error");
 
         Object actual = interpreter.getEnvironment().deleteAt(0, "a");
         assertEquals(input, expected, actual);
@@ -0,0 +1,43 @@
+package com.example.interpretor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.example.App;
+import com.example.ast.Program;
+import com.example.environment.RuntimeError;
+import com.example.interpreter.Interpreter;
+import com.example.lexer.Lexer;
+import com.example.parser.Parser;
+
+public class ModuleTest {
+    /**
+     * A module whose top level fails is not left half initialized: the next
+     * use runs it again, and sees the global it was missing by then.
+     */
+    @Test
+    public void testFailedModuleRunsAgain() {
+        Interpreter interpreter = new Interpreter();
+        run(interpreter, "import 'src/test/resources/modules/needs_limit.lox' as m;");
+        for (int i = 0; i < 2; i++) {
+            try {
+                run(interpreter, "let b = m.ready;");
+                fail("the module should fail while limit is undefined");
+            } catch (RuntimeError e) {
+                assertEquals("Undefined variable 'limit'", e.getMessage());
+            }
+        }
+        run(interpreter, "let limit = 21; let a = m.value;");
+        assertEquals(42L, interpreter.getEnvironment().deleteAt(0, "a"));
+    }
+
+    private static void run(Interpreter interpreter, String input) {
+        Program program = new Parser(new Lexer(input)).getProgram();
+        if (App.hasError()) {
+            fail("Parser has error");
+        }
+        interpreter.interpret(program);
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.lexer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import java.util.Arrays;
@@ -10,6 +11,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
+import com.example.token.SymbolTable;
 import com.example.token.Token;
 import com.example.token.TokenType;
 
@@ -30,6 +32,7 @@ public class LexerKeywordTest {
                 { "super", TokenType.Super },
                 { "return", TokenType.Return },
                 { "fn", TokenType.Function },
+                { "constructor", TokenType.Identifier },
 
         });
     }
@@ -52,4 +55,18 @@ public class LexerKeywordTest {
             fail(e.getMessage());
         }
     }
+
+    @Test
+    public void testSymbol() {
+        Lexer l = new Lexer(input + " " + input);
+        try {
+            Token first = l.next();
+            Token second = l.next();
+            assertSame(SymbolTable.intern(input), first.getSymbol());
+            assertSame(first.getSymbol(), second.getSymbol());
+            assertSame(first.getLiteral(), second.getLiteral());
+        } catch (LexerError e) {
+            fail(e.getMessage());
+        }
+    }
 }
\ No newline at end of file
@@ -20,7 +20,7 @@ public class LexerObject {
     @Parameterized.Parameters
     public static List<Object[]> data() {
         return Arrays.asList(new Object[][] {
-                { "1", new Token(TokenType.Number, 1, 1, 1.0) },
+                { "1", new Token(TokenType.Number, 1, 1, 1L) },
                 { "1.0", new Token(TokenType.Number, 1, 1, 1.0) },
                 { "true", new Token(TokenType.True, 1, 1, "true") },
                 { "false", new Token(TokenType.False, 1, 1, "false") },
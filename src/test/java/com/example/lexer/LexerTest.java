@@ -3,8 +3,12 @@ package com.example.lexer;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -84,4 +88,16 @@ public class LexerTest {
             fail(e.getMessage());
         }
     }
+
+    @Test
+    public void testTokenAcrossBlocks() {
+        String text = String.join("", Collections.nCopies(8190, " ")) + input;
+        Token expected = new Token(expectedType, 1, 8191);
+        try {
+            assertEquals(expected, new Lexer(new StringReader(text)).next());
+            assertEquals(expected, new Lexer(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8))).next());
+        } catch (LexerError e) {
+            fail(e.getMessage());
+        }
+    }
 }
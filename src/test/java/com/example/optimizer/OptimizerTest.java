@@ -0,0 +1,56 @@
+package com.example.optimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import com.example.App;
+import com.example.ast.Program;
+import com.example.lexer.Lexer;
+import com.example.parser.Parser;
+
+@RunWith(Parameterized.class)
+public class OptimizerTest {
+    private String input;
+    private String expected;
+
+    public OptimizerTest(String input, String expected) {
+        this.input = input;
+        this.expected = expected;
+    }
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                { "let a = 2 * 3.5;", "[let(a, 7.0)]" },
+                { "let a = -(1 + 2) * b;", "[let(a, Multiply(-3, b))]" },
+                { "let a = 'a' + 'b' == 'ab';", "[let(a, true)]" },
+                { "let a = 1 - 'a';", "[let(a, Minus(1, a))]" },
+                { "if (1 > 2) { print(1); } else { print(2); }", "[[print[2]]]" },
+                { "while (!true) { print(1); } print(2);", "[print[2]]" },
+                { "fn f(x) { if (x) return 1; else return 2; print(3); }",
+                        "[f[x] [if(x, return(1), return(2))])]" },
+                { "while (x) { break; x = 1; }", "[(while x [break])]" },
+                { "let a = [1 + 1, b];", "[let(a, [2, b])]" },
+                { "let a = 1 << 3 | 1;", "[let(a, 9)]" },
+        });
+    }
+
+    @Test
+    public void testOptimizer() {
+        Lexer lexer = new Lexer(input);
+        Parser parser = new Parser(lexer);
+        Program program = parser.getProgram();
+        if (App.hasError()) {
+            fail("Parser has error");
+        }
+        String actual = new Optimizer().optimize(program).toString();
+        assertEquals(input, expected, actual);
+    }
+}
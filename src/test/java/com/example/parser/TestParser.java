@@ -3,14 +3,17 @@ package com.example.parser;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
 import com.example.ast.Program;
+import com.example.ast.Stmt;
 import com.example.lexer.Lexer;
 
 @RunWith(Parameterized.class)
@@ -27,17 +30,21 @@ public class TestParser {
     @Parameterized.Parameters
     public static Collection<Object[]> data() {
         return Arrays.asList(new Object[][] {
-                { "[1,2,3];", "[[1.0, 2.0, 3.0]]" },
+                { "[1,2,3];", "[[1, 2, 3]]" },
                 // The map is not ordered, so the expected result is not ordered
                 // { "{1:2, 3:\"4\", \"5\":6};", "[{5=6.0, 1.0=2.0, 3.0=4}]" },
-                { "3;", "[3.0]" },
-                { "let a = 3*1/3;", "[let(a, Multiply(3.0, Divide(1.0, 3.0)))]" },
-                { "let a = 1*4 + 2*3;", "[let(a, Plus(Multiply(1.0, 4.0), Multiply(2.0, 3.0)))]" },
-                { "if (!true) { print(123); }else { b=3; }", "[if(Not(true), [print[123.0]], [Assign(b, 3.0)])]" },
-                { "fn square(a) { return a^2;}", "[square[a] [return(Exponent(a, 2.0))])]" },
-                { "square(3);", "[square[3.0]]" },
+                { "3;", "[3]" },
+                { "let a = 3*1/3;", "[let(a, Multiply(3, Divide(1, 3)))]" },
+                { "let a = 1*4 + 2*3;", "[let(a, Plus(Multiply(1, 4), Multiply(2, 3)))]" },
+                { "if (!true) { print(123); }else { b=3; }", "[if(Not(true), [print[123]], [Assign(b, 3)])]" },
+                { "fn square(a) { return a^2;}", "[square[a] [return(Exponent(a, 2))])]" },
+                { "square(3);", "[square[3]]" },
+                { "for (let i = 0; i < 2; i += 1) print(i);",
+                        "[(for let(i, 0) LessThan(i, 2) Assign(i, Plus(i, 1)) print[i])]" },
+                { "xs[i] += 1; xs[i] = 2;", "[set(xs[i], Plus, 1), set(xs[i], 2)]" },
                 { "(300 >= 20)||1<20;",
-                        "[Or(GreaterThanOrEqual(300.0, 20.0), LessThan(1.0, 20.0))]" },
+                        "[Or(GreaterThanOrEqual(300, 20), LessThan(1, 20))]" },
+                { "import \"lib/util.lox\" as util;", "[import(lib/util.lox, util)]" },
         });
     }
 
@@ -52,4 +59,13 @@ public class TestParser {
         String actual = program.toString();
         assertEquals(input, expected, actual);
     }
+
+    @Test
+    public void testStatements() {
+        Parser parser = new Parser(new Lexer(input));
+        List<Stmt> stmts = new ArrayList<>();
+        for (Stmt stmt = parser.nextStatement(); stmt != null; stmt = parser.nextStatement())
+            stmts.add(stmt);
+        assertEquals(input, expected, stmts.toString());
+    }
 }